@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates inboxes and stores for the benchmarks.
+ */
+final class BenchmarkFiles {
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyz0123456789";
+
+    /**
+     * A directory on another file system than the temp directory, used as store for the cross-device benchmarks. Override with -Dbenchmark.crossDeviceDir.
+     */
+    static final Path CROSS_DEVICE_DIR = Paths.get(System.getProperty("benchmark.crossDeviceDir", "/dev/shm"));
+
+    private BenchmarkFiles() {
+    }
+
+    static String randomSuffix(Random random) {
+        StringBuilder sb = new StringBuilder(6);
+        for (int i = 0; i < 6; i++) {
+            sb.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Generates names as exported by Dataverse, e.g. doi-10-5072-fk2-xcfq1bv1.0.zip.
+     */
+    static List<String> dveNames(int count, long seed) {
+        Random random = new Random(seed);
+        List<String> names = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            names.add("doi-10-5072-fk2-" + randomSuffix(random) + "v" + (1 + random.nextInt(3)) + "." + random.nextInt(3) + ".zip");
+        }
+        return names;
+    }
+
+    static List<Path> createDves(Path inbox, List<String> names, int fileSize) throws IOException {
+        Files.createDirectories(inbox);
+        byte[] content = new byte[Math.min(fileSize, 1 << 20)];
+        new Random(fileSize).nextBytes(content);
+        List<Path> dves = new ArrayList<>(names.size());
+        for (String name : names) {
+            Path dve = inbox.resolve(name);
+            try (OutputStream out = Files.newOutputStream(dve)) {
+                for (int written = 0; written < fileSize; written += content.length) {
+                    out.write(content, 0, Math.min(content.length, fileSize - written));
+                }
+            }
+            dves.add(dve);
+        }
+        return dves;
+    }
+
+    static Path createTempDir(boolean crossDevice, String prefix) throws IOException {
+        return crossDevice ? Files.createTempDirectory(CROSS_DEVICE_DIR, prefix) : Files.createTempDirectory(prefix);
+    }
+
+    static void delete(Path dir) throws IOException {
+        if (dir != null) {
+            FileUtils.deleteDirectory(dir.toFile());
+        }
+    }
+}
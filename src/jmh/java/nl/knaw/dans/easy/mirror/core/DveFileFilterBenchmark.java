@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DveFileFilterBenchmark {
+    @Param({ "1000", "10000" })
+    public int inboxSize;
+
+    private Path inbox;
+    private File[] files;
+    private DveFileFilter filter;
+
+    @Setup
+    public void setUp() throws IOException {
+        inbox = BenchmarkFiles.createTempDir(false, "dve-filter-");
+        files = BenchmarkFiles.createDves(inbox, BenchmarkFiles.dveNames(inboxSize, 42), 0).stream().map(Path::toFile).toArray(File[]::new);
+        filter = new DveFileFilter(inbox);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkFiles.delete(inbox);
+    }
+
+    /**
+     * Filters the whole inbox, as the polling observer does on every tick.
+     */
+    @Benchmark
+    public int acceptAll() {
+        int accepted = 0;
+        for (File file : files) {
+            if (filter.accept(file)) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+}
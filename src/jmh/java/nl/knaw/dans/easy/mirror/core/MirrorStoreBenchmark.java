@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+public class MirrorStoreBenchmark {
+
+    /**
+     * A store that already holds storeSize DVEs, for the lookups.
+     */
+    @State(Scope.Benchmark)
+    public static class FilledStore {
+        @Param({ "10000" })
+        public int storeSize;
+
+        Path dir;
+        MirrorStore store;
+        List<Path> stored;
+        List<Path> absent;
+        List<ExportedDatasetVersionName> names;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            dir = BenchmarkFiles.createTempDir(false, "mirror-store-");
+            store = new MirrorStore(dir.resolve("store"));
+            stored = BenchmarkFiles.createDves(dir.resolve("inbox"), BenchmarkFiles.dveNames(storeSize, 42), 0);
+            for (Path dve : stored) {
+                store.store(dve);
+            }
+            absent = BenchmarkFiles.createDves(dir.resolve("absent"), BenchmarkFiles.dveNames(1024, 43), 0);
+            names = stored.stream().map(p -> new ExportedDatasetVersionName(p.getFileName().toString())).collect(Collectors.toList());
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            BenchmarkFiles.delete(dir);
+        }
+    }
+
+    /**
+     * An inbox that is moved into an empty store in each iteration.
+     */
+    @State(Scope.Benchmark)
+    public static class Inbox {
+        @Param({ "1000" })
+        public int inboxSize;
+
+        @Param({ "0", "1048576" })
+        public int fileSize;
+
+        @Param({ "false", "true" })
+        public boolean crossDevice;
+
+        Path inboxDir;
+        Path storeDir;
+        MirrorStore store;
+        List<Path> dves;
+
+        @Setup(Level.Iteration)
+        public void setUp() throws IOException {
+            inboxDir = BenchmarkFiles.createTempDir(false, "mirror-inbox-");
+            storeDir = BenchmarkFiles.createTempDir(crossDevice, "mirror-store-");
+            store = new MirrorStore(storeDir);
+            dves = BenchmarkFiles.createDves(inboxDir, BenchmarkFiles.dveNames(inboxSize, 42), fileSize);
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() throws IOException {
+            BenchmarkFiles.delete(inboxDir);
+            BenchmarkFiles.delete(storeDir);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Warmup(iterations = 3, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    @Fork(1)
+    public void calculateContainer(FilledStore state, Blackhole blackhole) {
+        blackhole.consume(state.store.calculateContainer(state.names.get(state.next++ % state.names.size())));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Warmup(iterations = 3, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    @Fork(1)
+    public boolean containsPresent(FilledStore state) {
+        return state.store.contains(state.stored.get(state.next++ % state.stored.size()));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Warmup(iterations = 3, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    @Fork(1)
+    public boolean containsAbsent(FilledStore state) {
+        return state.store.contains(state.absent.get(state.next++ & 1023));
+    }
+
+    /**
+     * Stores a complete inbox; one operation is inboxSize DVEs.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    @Fork(1)
+    public void store(Inbox state) throws IOException {
+        for (Path dve : state.dves) {
+            state.store.store(dve);
+        }
+    }
+}
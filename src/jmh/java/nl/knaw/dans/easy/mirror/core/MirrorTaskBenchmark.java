@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import com.codahale.metrics.MetricRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves a large generated inbox into the store with {@link MirrorTask#move(Path)}, one DVE at a time, as a single worker does. One operation is the complete
+ * inbox.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MirrorTaskBenchmark {
+    @Param({ "10000" })
+    public int inboxSize;
+
+    @Param({ "0", "1048576" })
+    public int fileSize;
+
+    @Param({ "false", "true" })
+    public boolean crossDevice;
+
+    private Path inboxDir;
+    private Path storeDir;
+    private MirrorTask task;
+    private List<Path> dves;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        inboxDir = BenchmarkFiles.createTempDir(false, "mirror-inbox-");
+        storeDir = BenchmarkFiles.createTempDir(crossDevice, "mirror-store-");
+        Path failedBox = Files.createDirectories(storeDir.resolve("failed"));
+        task = new MirrorTask(failedBox, new MirrorStore(storeDir.resolve("store")), new MetricRegistry());
+        dves = BenchmarkFiles.createDves(inboxDir, BenchmarkFiles.dveNames(inboxSize, 42), fileSize);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        BenchmarkFiles.delete(inboxDir);
+        BenchmarkFiles.delete(storeDir);
+    }
+
+    @Benchmark
+    public void moveInbox() {
+        for (Path dve : dves) {
+            task.move(dve);
+        }
+    }
+}
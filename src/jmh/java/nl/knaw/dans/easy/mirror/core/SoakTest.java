@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.util.Duration;
+import nl.knaw.dans.easy.mirror.core.config.Inbox;
+import nl.knaw.dans.easy.mirror.core.config.Readiness;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Soak test of the complete mirroring pipeline. Starts a {@link MirroringService} on temporary inboxes and a temporary store, writes DVE/XML pairs into the
+ * inboxes at a fixed rate and reports throughput, the latency from the moment a DVE is completely written until it is stored, and the peak heap usage.
+ * <p>
+ * Options are given as <code>key=value</code> arguments; see {@link #main(String[])} for the defaults.
+ */
+public class SoakTest {
+    private final Map<String, String> options;
+    private final Random random = new Random(42);
+    private final AtomicLong counter = new AtomicLong();
+    private final Map<String, Long> writtenAt = new ConcurrentHashMap<>();
+    private final List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicLong stored = new AtomicLong();
+
+    private SoakTest(Map<String, String> options) {
+        this.options = options;
+    }
+
+    /**
+     * Options:
+     * <ul>
+     *     <li>inboxes: number of inboxes (4)</li>
+     *     <li>rate: DVEs written per second, over all inboxes (20)</li>
+     *     <li>duration: seconds to keep writing (60)</li>
+     *     <li>backlog: DVEs written before the service is started (0)</li>
+     *     <li>minSize, maxSize: bytes per DVE, log-uniformly distributed (10240, 10485760)</li>
+     *     <li>slowWriters: fraction of DVEs written slowly (0.1)</li>
+     *     <li>slowWriteSeconds: time over which a slow DVE is written (3)</li>
+     *     <li>workers: worker threads (4)</li>
+     *     <li>quietPeriodMs: readiness quiet period (1000)</li>
+     *     <li>dir: directory for inboxes and store (the temp directory)</li>
+     *     <li>storeDir: directory for the store, e.g. on another file system (under dir)</li>
+     *     <li>keep: keep the generated inboxes and store afterwards</li>
+     * </ul>
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] keyValue = arg.split("=", 2);
+            if (keyValue.length != 2) {
+                throw new IllegalArgumentException("Expected key=value, got " + arg);
+            }
+            options.put(keyValue[0], keyValue[1]);
+        }
+        new SoakTest(options).run();
+        System.exit(0);
+    }
+
+    private String option(String key, String defaultValue) {
+        return options.getOrDefault(key, defaultValue);
+    }
+
+    private void run() throws Exception {
+        int inboxCount = Integer.parseInt(option("inboxes", "4"));
+        double rate = Double.parseDouble(option("rate", "20"));
+        int duration = Integer.parseInt(option("duration", "60"));
+        int backlog = Integer.parseInt(option("backlog", "0"));
+        long minSize = Long.parseLong(option("minSize", "10240"));
+        long maxSize = Long.parseLong(option("maxSize", "10485760"));
+        double slowWriters = Double.parseDouble(option("slowWriters", "0.1"));
+        int slowWriteSeconds = Integer.parseInt(option("slowWriteSeconds", "3"));
+        int workers = Integer.parseInt(option("workers", "4"));
+        long quietPeriod = Long.parseLong(option("quietPeriodMs", "1000"));
+
+        Path dir = Files.createTempDirectory(Paths.get(option("dir", System.getProperty("java.io.tmpdir"))), "soak-");
+        Path storeDir = options.containsKey("storeDir") ? Files.createTempDirectory(Paths.get(options.get("storeDir")), "soak-store-") : dir.resolve("store");
+        Path failedBox = Files.createDirectories(dir.resolve("failed"));
+        Files.createDirectories(storeDir);
+        List<Inbox> inboxes = new ArrayList<>();
+        for (int i = 0; i < inboxCount; i++) {
+            Inbox inbox = new Inbox();
+            inbox.setPath(Files.createDirectories(dir.resolve("inbox-" + i)));
+            inboxes.add(inbox);
+        }
+        System.out.printf("Inboxes and store in %s, store in %s%n", dir, storeDir);
+
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        AtomicLong peakHeap = new AtomicLong();
+        sampler.scheduleAtFixedRate(() -> peakHeap.accumulateAndGet(usedHeap(), Math::max), 0, 100, TimeUnit.MILLISECONDS);
+
+        for (int i = 0; i < backlog; i++) {
+            writeDve(inboxes.get(i % inboxCount).getPath(), size(minSize, maxSize), 0);
+        }
+        System.out.printf("Wrote backlog of %d DVEs%n", backlog);
+
+        MetricRegistry metrics = new MetricRegistry();
+        MirrorStore store = new MirrorStore(Collections.singletonList(storeDir), 0, Collections.singletonList("SHA-256"), metrics) {
+
+            @Override
+            public StoredDve store(Dve dve) throws IOException {
+                StoredDve storedDve = super.store(dve);
+                Long start = writtenAt.remove(dve.getPath().getFileName().toString());
+                if (start != null) {
+                    latencies.add(System.currentTimeMillis() - start);
+                }
+                stored.incrementAndGet();
+                return storedDve;
+            }
+        };
+        Readiness readiness = new Readiness();
+        readiness.setQuietPeriod(Duration.milliseconds(quietPeriod));
+        readiness.setCheckInterval(Duration.milliseconds(Math.max(100, quietPeriod / 5)));
+        MirroringService service = new MirroringService(1000, inboxes, failedBox, store, new MirrorTaskExecutor(workers, 1000), readiness,
+            RetryPolicy.noRetries(), null, null, null, 30000, new DveLatencyTracker(Long.MAX_VALUE, 1000, metrics), metrics);
+
+        long start = System.currentTimeMillis();
+        service.start();
+
+        ScheduledExecutorService writers = Executors.newScheduledThreadPool(Math.max(4, (int) Math.ceil(rate * slowWriters * slowWriteSeconds) + 2));
+        long periodMicros = (long) (1000000 / rate);
+        AtomicLong next = new AtomicLong();
+        writers.scheduleAtFixedRate(() -> {
+            Path inbox = inboxes.get((int) (next.getAndIncrement() % inboxCount)).getPath();
+            long size = size(minSize, maxSize);
+            boolean slow = nextDouble() < slowWriters;
+            writers.execute(() -> {
+                try {
+                    writeDve(inbox, size, slow ? slowWriteSeconds * 1000L : 0);
+                }
+                catch (IOException | InterruptedException e) {
+                    System.err.println("Could not write DVE: " + e);
+                }
+            });
+        }, 0, periodMicros, TimeUnit.MICROSECONDS);
+
+        for (int s = 1; s <= duration; s++) {
+            Thread.sleep(1000);
+            if (s % 10 == 0) {
+                System.out.printf("%4d s: written %d, stored %d%n", s, counter.get(), stored.get());
+            }
+        }
+        writers.shutdown();
+        writers.awaitTermination(slowWriteSeconds + 10, TimeUnit.SECONDS);
+        long written = counter.get();
+        long deadline = System.currentTimeMillis() + Math.max(60000, duration * 1000L);
+        while (stored.get() < written && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        service.stop();
+        sampler.shutdownNow();
+
+        report(written, elapsed, peakHeap.get());
+        if (!Boolean.parseBoolean(option("keep", "false"))) {
+            BenchmarkFiles.delete(dir);
+            if (options.containsKey("storeDir")) {
+                BenchmarkFiles.delete(storeDir);
+            }
+        }
+    }
+
+    private void report(long written, long elapsed, long peakHeap) {
+        List<Long> sorted;
+        synchronized (latencies) {
+            sorted = new ArrayList<>(latencies);
+        }
+        Collections.sort(sorted);
+        System.out.println();
+        System.out.printf("DVEs written:     %d%n", written);
+        System.out.printf("DVEs stored:      %d%n", stored.get());
+        System.out.printf("Throughput:       %.1f DVEs/s%n", stored.get() * 1000.0 / elapsed);
+        System.out.printf("Latency p50:      %d ms%n", percentile(sorted, 50));
+        System.out.printf("Latency p95:      %d ms%n", percentile(sorted, 95));
+        System.out.printf("Latency p99:      %d ms%n", percentile(sorted, 99));
+        System.out.printf("Latency max:      %d ms%n", sorted.isEmpty() ? 0 : sorted.get(sorted.size() - 1));
+        System.out.printf("Peak heap:        %d MiB%n", peakHeap >> 20);
+    }
+
+    private static long percentile(List<Long> sorted, int percentile) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, index));
+    }
+
+    private static long usedHeap() {
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                used += pool.getUsage().getUsed();
+            }
+        }
+        return used;
+    }
+
+    private synchronized double nextDouble() {
+        return random.nextDouble();
+    }
+
+    // Log-uniform, so that there are many small and a few very large DVEs
+    private synchronized long size(long minSize, long maxSize) {
+        double logMin = Math.log(minSize);
+        return (long) Math.exp(logMin + random.nextDouble() * (Math.log(maxSize) - logMin));
+    }
+
+    private synchronized String nextName() {
+        long n = counter.incrementAndGet();
+        String prefix = BenchmarkFiles.randomSuffix(random).substring(0, 2);
+        return "doi-10-5072-fk2-" + prefix + String.format("%6s", Long.toString(n, 36)).replace(' ', '0') + "v1.0.zip";
+    }
+
+    /*
+     * Writes the DVE and then its XML, as Dataverse does. A slow writer spreads writing the DVE over the given time, so that readiness checking must hold it
+     * back.
+     */
+    private void writeDve(Path inbox, long size, long writeMillis) throws IOException, InterruptedException {
+        String name = nextName();
+        byte[] chunk = new byte[1 << 16];
+        long chunks = Math.max(1, (size + chunk.length - 1) / chunk.length);
+        long pause = writeMillis / chunks;
+        try (OutputStream out = Files.newOutputStream(inbox.resolve(name))) {
+            for (long written = 0; written < size; written += chunk.length) {
+                ThreadLocalRandom.current().nextBytes(chunk);
+                out.write(chunk, 0, (int) Math.min(chunk.length, size - written));
+                if (pause > 0) {
+                    out.flush();
+                    Thread.sleep(pause);
+                }
+            }
+        }
+        writtenAt.put(name, System.currentTimeMillis());
+        Files.write(inbox.resolve(new ExportedDatasetVersionName(name).getXmlName()), "<resource/>\n".getBytes(StandardCharsets.UTF_8));
+    }
+}
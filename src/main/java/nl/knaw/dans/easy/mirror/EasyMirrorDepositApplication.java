@@ -17,10 +17,20 @@
 package nl.knaw.dans.easy.mirror;
 
 import io.dropwizard.Application;
+import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
+import nl.knaw.dans.easy.mirror.cli.MigrateStoreCommand;
 import nl.knaw.dans.easy.mirror.core.MirroringService;
+import nl.knaw.dans.easy.mirror.core.StoreScrubber;
 import nl.knaw.dans.easy.mirror.core.config.Inbox;
+import nl.knaw.dans.easy.mirror.core.config.Scrubber;
 import nl.knaw.dans.easy.mirror.health.InboxHealth;
+import nl.knaw.dans.easy.mirror.health.MirrorStoreHealth;
+import nl.knaw.dans.easy.mirror.resources.MirrorStoreResource;
+import nl.knaw.dans.easy.mirror.tasks.PauseInboxTask;
+import nl.knaw.dans.easy.mirror.tasks.ReingestFailedTask;
+import nl.knaw.dans.easy.mirror.tasks.ResumeInboxTask;
+import nl.knaw.dans.easy.mirror.tasks.SlowestDvesTask;
 
 public class EasyMirrorDepositApplication extends Application<EasyMirrorDepositConfiguration> {
 
@@ -33,14 +43,30 @@ public class EasyMirrorDepositApplication extends Application<EasyMirrorDepositC
         return "Easy Mirror Deposit";
     }
 
+    @Override
+    public void initialize(final Bootstrap<EasyMirrorDepositConfiguration> bootstrap) {
+        bootstrap.addCommand(new MigrateStoreCommand());
+    }
+
     @Override
     public void run(final EasyMirrorDepositConfiguration configuration, final Environment environment) {
-        final MirroringService mirroringService = configuration.getMirroringService().build();
+        final MirroringService mirroringService = configuration.getMirroringService().build(environment.metrics());
         environment.lifecycle().manage(mirroringService);
+        Scrubber scrubber = configuration.getMirroringService().getScrubber();
+        if (scrubber.isEnabled()) {
+            environment.lifecycle().manage(new StoreScrubber(mirroringService.getMirrorStore(), scrubber.getDataDir(),
+                scrubber.getBytesPerSecond().toBytes(), scrubber.getPauseBetweenPasses().toMilliseconds(), environment.metrics()));
+        }
         for (Inbox inbox : configuration.getMirroringService().getInboxes()) {
-            environment.healthChecks().register(String.format("Inbox-%s", inbox.getPath().toString()), new InboxHealth(inbox.getPath()));
+            environment.healthChecks().register(String.format("Inbox-%s", inbox.getPath().toString()),
+                new InboxHealth(mirroringService.getInboxStats(inbox), configuration.getMirroringService().getInboxHealth()));
         }
-
+        environment.healthChecks().register("MirrorStore", new MirrorStoreHealth(mirroringService.getMirrorStore()));
+        environment.admin().addTask(new ReingestFailedTask(mirroringService));
+        environment.admin().addTask(new PauseInboxTask(mirroringService));
+        environment.admin().addTask(new ResumeInboxTask(mirroringService));
+        environment.admin().addTask(new SlowestDvesTask(mirroringService.getLatencyTracker()));
+        environment.jersey().register(new MirrorStoreResource(mirroringService.getMirrorStore()));
     }
 
 }
@@ -15,14 +15,41 @@
  */
 package nl.knaw.dans.easy.mirror;
 
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonFormat;
+import io.dropwizard.util.DataSize;
+import io.dropwizard.util.Duration;
+import nl.knaw.dans.easy.mirror.core.ClaimManager;
+import nl.knaw.dans.easy.mirror.core.DveLatencyTracker;
+import nl.knaw.dans.easy.mirror.core.DveValidator;
+import nl.knaw.dans.easy.mirror.core.MirrorStore;
+import nl.knaw.dans.easy.mirror.core.MirrorTaskExecutor;
 import nl.knaw.dans.easy.mirror.core.MirroringService;
+import nl.knaw.dans.easy.mirror.core.RetryPolicy;
+import nl.knaw.dans.easy.mirror.core.StoreLayout;
+import nl.knaw.dans.easy.mirror.core.TransferStrategy;
+import nl.knaw.dans.easy.mirror.core.config.Cluster;
 import nl.knaw.dans.easy.mirror.core.config.Inbox;
+import nl.knaw.dans.easy.mirror.core.config.InboxHealthLimits;
+import nl.knaw.dans.easy.mirror.core.config.Layout;
+import nl.knaw.dans.easy.mirror.core.config.Readiness;
+import nl.knaw.dans.easy.mirror.core.config.Retry;
+import nl.knaw.dans.easy.mirror.core.config.Scrubber;
+import nl.knaw.dans.easy.mirror.core.config.Tracing;
+import nl.knaw.dans.easy.mirror.core.config.Transfer;
+import nl.knaw.dans.easy.mirror.core.config.TransferMethod;
+import nl.knaw.dans.easy.mirror.core.config.Validation;
+import nl.knaw.dans.easy.mirror.core.config.WorkerPool;
 
 import javax.validation.Valid;
+import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.NotNull;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.nio.file.Path;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
 
 public class MirroringServiceFactory {
 
@@ -32,17 +59,109 @@ public class MirroringServiceFactory {
 
     private int pollingInterval;
 
+    @NotNull
+    private Duration drainTimeout = Duration.seconds(30);
+
     @NotNull
     @Valid
     private Path failedBox;
 
+    @NotEmpty
+    @JsonFormat(with = JsonFormat.Feature.ACCEPT_SINGLE_VALUE_AS_ARRAY)
+    private List<Path> easyMirrorStore;
+
+    @NotNull
+    @Valid
+    private Layout storeLayout = new Layout();
+
+    @NotNull
+    @Valid
+    private List<Layout> previousStoreLayouts = Collections.emptyList();
+
+    @NotNull
+    private DataSize minFreeSpace = DataSize.gibibytes(10);
+
+    @NotNull
+    private Duration spaceCheckInterval = Duration.seconds(10);
+
+    @NotEmpty
+    private List<String> fixityAlgorithms = Collections.singletonList("SHA-256");
+
     @NotNull
     @Valid
-    private Path easyMirrorStore;
+    private Transfer transfer = new Transfer();
 
-    public MirroringService build() {
+    @NotNull
+    @Valid
+    private WorkerPool workerPool = new WorkerPool();
+
+    @NotNull
+    @Valid
+    private Readiness readiness = new Readiness();
+
+    @NotNull
+    @Valid
+    private Retry retry = new Retry();
+
+    @NotNull
+    @Valid
+    private Validation validation = new Validation();
+
+    @NotNull
+    @Valid
+    private Scrubber scrubber = new Scrubber();
+
+    @NotNull
+    @Valid
+    private Tracing tracing = new Tracing();
+
+    @NotNull
+    @Valid
+    private Cluster cluster = new Cluster();
+
+    @NotNull
+    @Valid
+    private InboxHealthLimits inboxHealth = new InboxHealthLimits();
+
+    public MirroringService build(MetricRegistry metrics) {
+        String nodeId = cluster.isEnabled() ? buildNodeId() : null;
         return new MirroringService(pollingInterval, inboxes,
-            failedBox, easyMirrorStore);
+            failedBox, new MirrorStore(easyMirrorStore, buildStoreLayout(),
+                previousStoreLayouts.stream().map(MirroringServiceFactory::toStoreLayout).collect(Collectors.toList()), minFreeSpace.toBytes(), spaceCheckInterval.toMilliseconds(),
+                fixityAlgorithms, buildTransferStrategy(), transfer.getFsync(), nodeId, metrics), new MirrorTaskExecutor(workerPool.getThreads(), workerPool.getMaxQueueSize()),
+            readiness,
+            new RetryPolicy(retry.getMaxAttempts(), retry.getInitialBackoff().toMilliseconds(), retry.getMaxBackoff().toMilliseconds()),
+            validation.isEnabled() ? new DveValidator(validation.isVerifyPayload()) : null,
+            validation.isEnabled() ? new MirrorTaskExecutor(validation.getThreads(), validation.getMaxQueueSize(), "validation-worker") : null,
+            nodeId == null ? null : new ClaimManager(nodeId, inboxes, cluster.getHeartbeatInterval().toMilliseconds(), cluster.getLeaseTimeout().toMilliseconds(), metrics),
+            drainTimeout.toMilliseconds(), new DveLatencyTracker(tracing.getSlowThreshold().toMilliseconds(), tracing.getRecentSize(), metrics), metrics);
+    }
+
+    public StoreLayout buildStoreLayout() {
+        return toStoreLayout(storeLayout);
+    }
+
+    private TransferStrategy buildTransferStrategy() {
+        if (transfer.getMethod() == TransferMethod.STREAM) {
+            return new TransferStrategy.StreamTransfer((int) transfer.getBufferSize().toBytes());
+        }
+        return new TransferStrategy.ChannelTransfer();
+    }
+
+    private String buildNodeId() {
+        if (cluster.getNodeId() != null) {
+            return cluster.getNodeId();
+        }
+        try {
+            return InetAddress.getLocalHost().getHostName().replaceAll("[^A-Za-z0-9_-]", "_");
+        }
+        catch (UnknownHostException e) {
+            throw new IllegalStateException("Could not determine host name, configure cluster.nodeId", e);
+        }
+    }
+
+    private static StoreLayout toStoreLayout(Layout layout) {
+        return new StoreLayout(layout.getDepth(), layout.getWidth());
     }
 
     public List<Inbox> getInboxes() {
@@ -61,6 +180,14 @@ public class MirroringServiceFactory {
         this.pollingInterval = pollingInterval;
     }
 
+    public Duration getDrainTimeout() {
+        return drainTimeout;
+    }
+
+    public void setDrainTimeout(Duration drainTimeout) {
+        this.drainTimeout = drainTimeout;
+    }
+
     public Path getFailedBox() {
         return failedBox;
     }
@@ -69,11 +196,123 @@ public class MirroringServiceFactory {
         this.failedBox = failedBox;
     }
 
-    public Path getEasyMirrorStore() {
+    public List<Path> getEasyMirrorStore() {
         return easyMirrorStore;
     }
 
-    public void setEasyMirrorStore(Path easyMirrorStore) {
+    public void setEasyMirrorStore(List<Path> easyMirrorStore) {
         this.easyMirrorStore = easyMirrorStore;
     }
+
+    public Layout getStoreLayout() {
+        return storeLayout;
+    }
+
+    public void setStoreLayout(Layout storeLayout) {
+        this.storeLayout = storeLayout;
+    }
+
+    public List<Layout> getPreviousStoreLayouts() {
+        return previousStoreLayouts;
+    }
+
+    public void setPreviousStoreLayouts(List<Layout> previousStoreLayouts) {
+        this.previousStoreLayouts = previousStoreLayouts;
+    }
+
+    public DataSize getMinFreeSpace() {
+        return minFreeSpace;
+    }
+
+    public void setMinFreeSpace(DataSize minFreeSpace) {
+        this.minFreeSpace = minFreeSpace;
+    }
+
+    public Duration getSpaceCheckInterval() {
+        return spaceCheckInterval;
+    }
+
+    public void setSpaceCheckInterval(Duration spaceCheckInterval) {
+        this.spaceCheckInterval = spaceCheckInterval;
+    }
+
+    public List<String> getFixityAlgorithms() {
+        return fixityAlgorithms;
+    }
+
+    public void setFixityAlgorithms(List<String> fixityAlgorithms) {
+        this.fixityAlgorithms = fixityAlgorithms;
+    }
+
+    public Transfer getTransfer() {
+        return transfer;
+    }
+
+    public void setTransfer(Transfer transfer) {
+        this.transfer = transfer;
+    }
+
+    public WorkerPool getWorkerPool() {
+        return workerPool;
+    }
+
+    public void setWorkerPool(WorkerPool workerPool) {
+        this.workerPool = workerPool;
+    }
+
+    public Readiness getReadiness() {
+        return readiness;
+    }
+
+    public void setReadiness(Readiness readiness) {
+        this.readiness = readiness;
+    }
+
+    public Retry getRetry() {
+        return retry;
+    }
+
+    public void setRetry(Retry retry) {
+        this.retry = retry;
+    }
+
+    public Validation getValidation() {
+        return validation;
+    }
+
+    public void setValidation(Validation validation) {
+        this.validation = validation;
+    }
+
+    public Scrubber getScrubber() {
+        return scrubber;
+    }
+
+    public void setScrubber(Scrubber scrubber) {
+        this.scrubber = scrubber;
+    }
+
+    public Tracing getTracing() {
+        return tracing;
+    }
+
+    public void setTracing(Tracing tracing) {
+        this.tracing = tracing;
+    }
+
+    public Cluster getCluster() {
+        return cluster;
+    }
+
+    public void setCluster(Cluster cluster) {
+        this.cluster = cluster;
+    }
+
+    public InboxHealthLimits getInboxHealth() {
+        return inboxHealth;
+    }
+
+    public void setInboxHealth(InboxHealthLimits inboxHealth) {
+        this.inboxHealth = inboxHealth;
+    }
 }
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.api;
+
+import java.util.List;
+
+/**
+ * The number and total size of the DVEs in the EASY mirror store, in total and per shard.
+ */
+public class StoreSummary {
+    private long count;
+    private long totalSize;
+    private List<ShardSummary> shards;
+
+    public StoreSummary() {
+    }
+
+    public StoreSummary(List<ShardSummary> shards) {
+        this.shards = shards;
+        for (ShardSummary shard : shards) {
+            count += shard.getCount();
+            totalSize += shard.getTotalSize();
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    public void setTotalSize(long totalSize) {
+        this.totalSize = totalSize;
+    }
+
+    public List<ShardSummary> getShards() {
+        return shards;
+    }
+
+    public void setShards(List<ShardSummary> shards) {
+        this.shards = shards;
+    }
+}
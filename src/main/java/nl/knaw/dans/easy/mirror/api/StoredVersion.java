@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.api;
+
+import nl.knaw.dans.easy.mirror.core.StoredDve;
+
+/**
+ * A version of a dataset in the EASY mirror store.
+ */
+public class StoredVersion {
+    private String spaceName;
+    private int majorVersion;
+    private int minorVersion;
+    private String fileName;
+    private long size;
+    private long storedAt;
+
+    public StoredVersion() {
+    }
+
+    public StoredVersion(StoredDve dve) {
+        this.spaceName = dve.getKey().getSpaceName();
+        this.majorVersion = dve.getKey().getMajorVersion();
+        this.minorVersion = dve.getKey().getMinorVersion();
+        this.fileName = dve.getPath().getFileName().toString();
+        this.size = dve.getSize();
+        this.storedAt = dve.getStoredAt();
+    }
+
+    public String getSpaceName() {
+        return spaceName;
+    }
+
+    public void setSpaceName(String spaceName) {
+        this.spaceName = spaceName;
+    }
+
+    public int getMajorVersion() {
+        return majorVersion;
+    }
+
+    public void setMajorVersion(int majorVersion) {
+        this.majorVersion = majorVersion;
+    }
+
+    public int getMinorVersion() {
+        return minorVersion;
+    }
+
+    public void setMinorVersion(int minorVersion) {
+        this.minorVersion = minorVersion;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    /**
+     * @return the time the DVE was stored in milliseconds since the epoch
+     */
+    public long getStoredAt() {
+        return storedAt;
+    }
+
+    public void setStoredAt(long storedAt) {
+        this.storedAt = storedAt;
+    }
+}
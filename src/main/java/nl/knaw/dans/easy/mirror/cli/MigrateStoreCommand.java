@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.cli;
+
+import io.dropwizard.cli.ConfiguredCommand;
+import io.dropwizard.setup.Bootstrap;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+import nl.knaw.dans.easy.mirror.EasyMirrorDepositConfiguration;
+import nl.knaw.dans.easy.mirror.MirroringServiceFactory;
+import nl.knaw.dans.easy.mirror.core.StoreMigration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Moves the DVEs in the mirror store to the containers of the configured storeLayout.
+ */
+public class MigrateStoreCommand extends ConfiguredCommand<EasyMirrorDepositConfiguration> {
+    private static final Logger log = LoggerFactory.getLogger(MigrateStoreCommand.class);
+
+    public MigrateStoreCommand() {
+        super("migrate-store", "Moves the DVEs in the mirror store to the configured storeLayout");
+    }
+
+    @Override
+    public void configure(Subparser subparser) {
+        super.configure(subparser);
+        subparser.addArgument("-t", "--threads")
+            .dest("threads")
+            .type(Integer.class)
+            .setDefault(Runtime.getRuntime().availableProcessors())
+            .help("the number of DVEs to move in parallel");
+    }
+
+    @Override
+    protected void run(Bootstrap<EasyMirrorDepositConfiguration> bootstrap, Namespace namespace, EasyMirrorDepositConfiguration configuration) throws Exception {
+        MirroringServiceFactory factory = configuration.getMirroringService();
+        StoreMigration migration = new StoreMigration(factory.getEasyMirrorStore(), factory.buildStoreLayout(), namespace.getInt("threads"));
+        long moved = migration.migrate();
+        log.info("Moved {} DVEs, skipped {}", moved, migration.getSkipped());
+    }
+}
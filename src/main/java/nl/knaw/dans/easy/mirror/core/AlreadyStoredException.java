@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import java.nio.file.FileAlreadyExistsException;
+
+/**
+ * The target of a DVE in the mirror store already exists, although the index did not know it, because another node stored it or the index was out of date.
+ * The stored DVE has been added to the index, so the incoming DVE can be handled as a duplicate.
+ */
+public class AlreadyStoredException extends FileAlreadyExistsException {
+    private static final long serialVersionUID = 1L;
+
+    public AlreadyStoredException(String file) {
+        super(file);
+    }
+}
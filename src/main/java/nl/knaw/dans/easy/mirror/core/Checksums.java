@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import org.apache.commons.codec.binary.Hex;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes checksums of files, optionally while copying them, so that each byte needs to be read only once.
+ */
+public final class Checksums {
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private Checksums() {
+    }
+
+    /**
+     * Checks that all algorithms are supported by the JVM.
+     *
+     * @param algorithms the names of the algorithms, as accepted by {@link MessageDigest#getInstance(String)}
+     * @throws IllegalArgumentException if an algorithm is not supported
+     */
+    public static void checkSupported(List<String> algorithms) {
+        createDigests(algorithms);
+    }
+
+    /**
+     * Copies source to target, computing the checksums of the copied bytes in the same pass.
+     *
+     * @param source     the file to copy
+     * @param target     the file to create; it must not exist yet
+     * @param algorithms the algorithms to use
+     * @return the checksums in hex, by algorithm
+     * @throws IOException if the file could not be copied
+     */
+    public static Map<String, String> copy(Path source, Path target, List<String> algorithms) throws IOException {
+        return copy(source, target, algorithms, BUFFER_SIZE);
+    }
+
+    /**
+     * Copies source to target through a buffer of the given size, computing the checksums of the copied bytes in the same pass.
+     *
+     * @param source     the file to copy
+     * @param target     the file to create; it must not exist yet
+     * @param algorithms the algorithms to use
+     * @param bufferSize the size of the buffer in bytes
+     * @return the checksums in hex, by algorithm
+     * @throws IOException if the file could not be copied
+     */
+    public static Map<String, String> copy(Path source, Path target, List<String> algorithms, int bufferSize) throws IOException {
+        Map<String, MessageDigest> digests = createDigests(algorithms);
+        byte[] buffer = new byte[bufferSize];
+        try (InputStream in = Files.newInputStream(source);
+            OutputStream out = Files.newOutputStream(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+                for (MessageDigest digest : digests.values()) {
+                    digest.update(buffer, 0, n);
+                }
+            }
+        }
+        return toHex(digests);
+    }
+
+    /**
+     * Copies source to target with {@link FileChannel#transferTo}, without passing the bytes through user space.
+     *
+     * @param source the file to copy
+     * @param target the file to create; it must not exist yet
+     * @throws IOException if the file could not be copied
+     */
+    public static void transfer(Path source, Path target) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+            FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                long transferred = in.transferTo(position, size - position, out);
+                if (transferred == 0 && position >= in.size()) {
+                    throw new IOException(String.format("%s was truncated while copying it", source));
+                }
+                position += transferred;
+            }
+        }
+    }
+
+    /**
+     * Computes the checksums of a file.
+     *
+     * @param file       the file
+     * @param algorithms the algorithms to use
+     * @return the checksums in hex, by algorithm
+     * @throws IOException if the file could not be read
+     */
+    public static Map<String, String> compute(Path file, List<String> algorithms) throws IOException {
+        Map<String, MessageDigest> digests = createDigests(algorithms);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                for (MessageDigest digest : digests.values()) {
+                    digest.update(buffer, 0, n);
+                }
+            }
+        }
+        return toHex(digests);
+    }
+
+    /**
+     * Returns the name of the BagIt-style manifest file for an algorithm, e.g. "manifest-sha256.txt" for "SHA-256".
+     *
+     * @param algorithm the algorithm
+     * @return the manifest file name
+     */
+    public static String manifestName(String algorithm) {
+        return "manifest-" + algorithm.toLowerCase().replace("-", "") + ".txt";
+    }
+
+    private static Map<String, MessageDigest> createDigests(List<String> algorithms) {
+        Map<String, MessageDigest> digests = new LinkedHashMap<>();
+        for (String algorithm : algorithms) {
+            try {
+                digests.put(algorithm, MessageDigest.getInstance(algorithm));
+            }
+            catch (NoSuchAlgorithmException e) {
+                throw new IllegalArgumentException("Unsupported checksum algorithm: " + algorithm, e);
+            }
+        }
+        return digests;
+    }
+
+    private static Map<String, String> toHex(Map<String, MessageDigest> digests) {
+        Map<String, String> checksums = new LinkedHashMap<>();
+        for (Map.Entry<String, MessageDigest> entry : digests.entrySet()) {
+            checksums.put(entry.getKey(), Hex.encodeHexString(entry.getValue().digest()));
+        }
+        return checksums;
+    }
+}
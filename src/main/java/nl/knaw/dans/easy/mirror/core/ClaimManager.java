@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import nl.knaw.dans.easy.mirror.core.config.Inbox;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lets several nodes process the same inboxes. A worker claims a DVE when it takes it from the queue, by renaming it into the claim directory of its node,
+ * {@code <inbox>/.claims/<nodeId>}. The rename is atomic, also on NFS, so exactly one node gets the DVE; the others find it gone and skip it. Because only
+ * DVEs that a worker is about to process are claimed, a busy node does not hoard DVEs: whichever node has a free worker first takes the next one.
+ * <p>
+ * Each node renews a lease file in its claim directories. A node that has not renewed its lease for the lease timeout is considered dead, and the first node
+ * that notices returns its claimed DVEs to the inbox, where they are processed like newly arrived DVEs.
+ */
+public class ClaimManager {
+    private static final Logger log = LoggerFactory.getLogger(ClaimManager.class);
+    public static final String CLAIMS_DIR = ".claims";
+    static final String LEASE_FILE = ".lease";
+
+    private final String nodeId;
+    private final List<Inbox> inboxes;
+    private final Map<Path, Path> inboxByClaimDir = new HashMap<>();
+    private final long heartbeatInterval;
+    private final long leaseTimeout;
+    private final Meter claimed;
+    private final Meter lost;
+    private final Meter reclaimed;
+    private final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "claim-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param nodeId            the name of the claim directory of this node; must differ between the nodes
+     * @param heartbeatInterval the number of milliseconds between renewing the leases and looking for expired leases
+     * @param leaseTimeout      the number of milliseconds after which a lease that was not renewed has expired
+     */
+    public ClaimManager(String nodeId, List<Inbox> inboxes, long heartbeatInterval, long leaseTimeout, MetricRegistry metrics) {
+        if (leaseTimeout <= heartbeatInterval) {
+            throw new IllegalArgumentException("Lease timeout must be longer than the heartbeat interval");
+        }
+        this.nodeId = nodeId;
+        this.inboxes = inboxes;
+        this.heartbeatInterval = heartbeatInterval;
+        this.leaseTimeout = leaseTimeout;
+        for (Inbox inbox : inboxes) {
+            inboxByClaimDir.put(getClaimDir(inbox).toAbsolutePath(), inbox.getPath());
+        }
+        this.claimed = metrics.meter(MetricRegistry.name(ClaimManager.class, "claimed"));
+        this.lost = metrics.meter(MetricRegistry.name(ClaimManager.class, "claimed-by-other-node"));
+        this.reclaimed = metrics.meter(MetricRegistry.name(ClaimManager.class, "reclaimed"));
+    }
+
+    /**
+     * Creates the claim directories and takes the leases. DVEs still claimed by this node from before a crash are returned to the inbox, because the workers
+     * that claimed them are gone.
+     *
+     * @throws IOException if a claim directory could not be created
+     */
+    public void start() throws IOException {
+        for (Inbox inbox : inboxes) {
+            Path claimDir = getClaimDir(inbox);
+            Files.createDirectories(claimDir);
+            renewLease(claimDir);
+            int returned = returnToInbox(claimDir, inbox.getPath());
+            if (returned > 0) {
+                log.info("Returned {} DVEs claimed before the last stop to {}", returned, inbox.getPath());
+            }
+        }
+        heartbeat.scheduleWithFixedDelay(this::heartbeat, heartbeatInterval, heartbeatInterval, TimeUnit.MILLISECONDS);
+        log.info("Node {} sharing {} inboxes", nodeId, inboxes.size());
+    }
+
+    /**
+     * Returns the DVEs that are still claimed to the inbox and gives up the leases, so that other nodes do not wait for them to expire. Call this after the
+     * workers have stopped.
+     */
+    public void stop() {
+        heartbeat.shutdownNow();
+        for (Inbox inbox : inboxes) {
+            Path claimDir = getClaimDir(inbox);
+            try {
+                int returned = returnToInbox(claimDir, inbox.getPath());
+                if (returned > 0) {
+                    log.info("Returned {} unprocessed claimed DVEs to {}", returned, inbox.getPath());
+                }
+                Files.deleteIfExists(claimDir.resolve(LEASE_FILE));
+            }
+            catch (IOException e) {
+                log.warn("Could not release claims in {}, other nodes will reclaim them when the lease expires", claimDir, e);
+            }
+        }
+    }
+
+    /**
+     * Claims a DVE for this node. Its XML file is moved along, so that it can still be found next to the DVE.
+     *
+     * @param inbox the inbox the DVE is in
+     * @param dve   the DVE
+     * @return the DVE in the claim directory, or empty if it is no longer in the inbox, because another node claimed it or it was processed already
+     * @throws IOException if the DVE could not be renamed
+     */
+    public Optional<Dve> claim(Inbox inbox, Dve dve) throws IOException {
+        Path claimDir = getClaimDir(inbox);
+        Path target = claimDir.resolve(dve.getPath().getFileName());
+        try {
+            Files.move(dve.getPath(), target, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (NoSuchFileException e) {
+            lost.mark();
+            return Optional.empty();
+        }
+        Optional<Path> xmlFile = dve.getXmlFile();
+        if (xmlFile.isPresent()) {
+            try {
+                Files.move(xmlFile.get(), claimDir.resolve(xmlFile.get().getFileName()), StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (NoSuchFileException e) {
+                // Not exported with the DVE; reported when the XML file is removed
+            }
+        }
+        claimed.mark();
+        Dve claimedDve = dve.movedTo(target);
+        claimedDve.mark(Dve.Stage.CLAIMED);
+        return Optional.of(claimedDve);
+    }
+
+    /**
+     * Checks that the lease of this node on the inbox is fresh enough that other nodes will not take over its claims while a DVE is being stored. A node that
+     * could not renew its lease, for instance because the inbox was unreachable, must stop working on its claims.
+     *
+     * @param inbox the inbox
+     * @return true if the lease was renewed less than the lease timeout minus a heartbeat interval ago
+     */
+    public boolean holdsLease(Inbox inbox) {
+        try {
+            long age = System.currentTimeMillis() - Files.getLastModifiedTime(getClaimDir(inbox).resolve(LEASE_FILE)).toMillis();
+            return age < leaseTimeout - heartbeatInterval;
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return whether the DVE is in a claim directory of this node
+     */
+    public boolean isClaimed(Dve dve) {
+        return inboxByClaimDir.containsKey(dve.getPath().toAbsolutePath().getParent());
+    }
+
+    /**
+     * @param path the path of a DVE, claimed or not
+     * @return where the DVE is in the inbox when it is not claimed
+     */
+    public Path getInboxPath(Path path) {
+        Path inbox = inboxByClaimDir.get(path.toAbsolutePath().getParent());
+        return inbox == null ? path : inbox.resolve(path.getFileName());
+    }
+
+    /**
+     * Returns a claimed DVE that was not processed to the inbox, for instance because the store is full. Does nothing if the DVE is not claimed by this node or
+     * no longer exists.
+     *
+     * @param dve the DVE
+     * @throws IOException if the DVE could not be moved back
+     */
+    public void release(Dve dve) throws IOException {
+        if (!isClaimed(dve) || Files.notExists(dve.getPath())) {
+            return;
+        }
+        Path inbox = inboxByClaimDir.get(dve.getPath().toAbsolutePath().getParent());
+        Optional<Path> xmlFile = dve.getXmlFile();
+        if (xmlFile.isPresent()) {
+            moveBack(xmlFile.get(), inbox);
+        }
+        moveBack(dve.getPath(), inbox);
+    }
+
+    /**
+     * Returns the DVEs claimed by nodes whose lease on the inbox has expired to the inbox.
+     *
+     * @param inbox the inbox
+     * @return the number of DVEs returned
+     * @throws IOException if the claim directories could not be read
+     */
+    public int reclaimExpired(Inbox inbox) throws IOException {
+        Path claimsDir = inbox.getPath().resolve(CLAIMS_DIR);
+        List<Path> nodeDirs = new ArrayList<>();
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(claimsDir, Files::isDirectory)) {
+            dirs.forEach(nodeDirs::add);
+        }
+        catch (NoSuchFileException e) {
+            return 0;
+        }
+        int total = 0;
+        for (Path nodeDir : nodeDirs) {
+            if (nodeDir.getFileName().toString().equals(nodeId) || !isExpired(nodeDir)) {
+                continue;
+            }
+            int returned = returnToInbox(nodeDir, inbox.getPath());
+            if (returned > 0) {
+                log.warn("Lease of node {} on {} expired, returned {} of its claimed DVEs to the inbox", nodeDir.getFileName(), inbox.getPath(), returned);
+                reclaimed.mark(returned);
+            }
+            total += returned;
+        }
+        return total;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public long getHeartbeatInterval() {
+        return heartbeatInterval;
+    }
+
+    Path getClaimDir(Inbox inbox) {
+        return inbox.getPath().resolve(CLAIMS_DIR).resolve(nodeId);
+    }
+
+    private void heartbeat() {
+        for (Inbox inbox : inboxes) {
+            try {
+                renewLease(getClaimDir(inbox));
+            }
+            catch (IOException e) {
+                log.error("Could not renew lease on {}, other nodes may take over the DVEs claimed from it", inbox.getPath(), e);
+            }
+            try {
+                reclaimExpired(inbox);
+            }
+            catch (IOException e) {
+                log.warn("Could not check the leases of other nodes on {}", inbox.getPath(), e);
+            }
+        }
+    }
+
+    private void renewLease(Path claimDir) throws IOException {
+        Path lease = claimDir.resolve(LEASE_FILE);
+        FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+        try {
+            Files.setLastModifiedTime(lease, now);
+        }
+        catch (NoSuchFileException e) {
+            Files.createDirectories(claimDir);
+            try {
+                Files.createFile(lease);
+            }
+            catch (FileAlreadyExistsException ignored) {
+                // Another thread was first
+            }
+            Files.setLastModifiedTime(lease, now);
+        }
+    }
+
+    // A node without a lease has stopped, or crashed before taking it; either way its claims are not being worked on
+    private boolean isExpired(Path nodeDir) throws IOException {
+        try {
+            return System.currentTimeMillis() - Files.getLastModifiedTime(nodeDir.resolve(LEASE_FILE)).toMillis() > leaseTimeout;
+        }
+        catch (NoSuchFileException e) {
+            return true;
+        }
+    }
+
+    /*
+     * The XML files go first, so that a DVE is not detected before its XML file is back. Another node may be returning the same claims; what it moved first is
+     * skipped.
+     */
+    private int returnToInbox(Path claimDir, Path inbox) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> claims = Files.newDirectoryStream(claimDir, f -> !f.getFileName().toString().startsWith(".") && Files.isRegularFile(f))) {
+            claims.forEach(files::add);
+        }
+        files.sort(Comparator.comparing((Path f) -> isZip(f)).thenComparing(Comparator.naturalOrder()));
+        int returned = 0;
+        for (Path file : files) {
+            if (moveBack(file, inbox) && isZip(file)) {
+                returned++;
+            }
+        }
+        return returned;
+    }
+
+    private boolean moveBack(Path file, Path inbox) throws IOException {
+        Path target = inbox.resolve(file.getFileName());
+        if (Files.exists(target)) {
+            log.warn("{} is claimed but also in {}, leaving the claimed copy in {}", file.getFileName(), inbox, file.getParent());
+            return false;
+        }
+        try {
+            Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        }
+        catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    private static boolean isZip(Path file) {
+        return file.getFileName().toString().toLowerCase().endsWith(".zip");
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import java.util.Comparator;
+import java.util.Objects;
+
+/**
+ * Identifies a dataset version by its space name and version number.
+ */
+public final class DatasetVersionKey implements Comparable<DatasetVersionKey> {
+    private static final Comparator<DatasetVersionKey> ORDER = Comparator.comparing(DatasetVersionKey::getSpaceName)
+        .thenComparingInt(DatasetVersionKey::getMajorVersion)
+        .thenComparingInt(DatasetVersionKey::getMinorVersion);
+
+    private final String spaceName;
+    private final int majorVersion;
+    private final int minorVersion;
+
+    public DatasetVersionKey(String spaceName, int majorVersion, int minorVersion) {
+        this.spaceName = spaceName;
+        this.majorVersion = majorVersion;
+        this.minorVersion = minorVersion;
+    }
+
+    public static DatasetVersionKey of(ExportedDatasetVersionName name) {
+        return new DatasetVersionKey(name.getSpaceName(), name.getMajorVersion(), name.getMinorVersion());
+    }
+
+    public String getSpaceName() {
+        return spaceName;
+    }
+
+    public int getMajorVersion() {
+        return majorVersion;
+    }
+
+    public int getMinorVersion() {
+        return minorVersion;
+    }
+
+    @Override
+    public int compareTo(DatasetVersionKey other) {
+        return ORDER.compare(this, other);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof DatasetVersionKey))
+            return false;
+        DatasetVersionKey that = (DatasetVersionKey) o;
+        return majorVersion == that.majorVersion && minorVersion == that.minorVersion && spaceName.equals(that.spaceName);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(spaceName, majorVersion, minorVersion);
+    }
+
+    @Override
+    public String toString() {
+        return spaceName + "v" + majorVersion + "." + minorVersion;
+    }
+}
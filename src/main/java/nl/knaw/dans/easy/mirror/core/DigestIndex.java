@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Side index of the digests of the DVEs in the EASY mirror store, so that a stored DVE never has to be read again to compare it with an incoming one. The
+ * digests are kept in memory and appended to a log file, which is read back when the store is opened.
+ */
+public class DigestIndex {
+    private static final Logger log = LoggerFactory.getLogger(DigestIndex.class);
+
+    private final Path file;
+    private final Map<String, String> digests = new ConcurrentHashMap<>();
+    private BufferedWriter writer;
+
+    public DigestIndex(Path file) {
+        this.file = file;
+    }
+
+    public synchronized void load() throws IOException {
+        close();
+        digests.clear();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.lastIndexOf('\t');
+                if (tab == -1) {
+                    log.warn("Ignoring invalid line in digest index {}: {}", file, line);
+                    continue;
+                }
+                digests.put(line.substring(0, tab), line.substring(tab + 1));
+            }
+        }
+        catch (NoSuchFileException e) {
+            // No digests yet
+        }
+        writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE);
+        log.debug("Loaded {} digests from {}", digests.size(), file);
+    }
+
+    public Optional<String> get(DatasetVersionKey key, String algorithm) {
+        return Optional.ofNullable(digests.get(entryKey(key, algorithm)));
+    }
+
+    public synchronized void put(DatasetVersionKey key, String algorithm, String digest) throws IOException {
+        String entryKey = entryKey(key, algorithm);
+        if (digest.equals(digests.put(entryKey, digest))) {
+            return;
+        }
+        if (writer != null) {
+            writer.write(entryKey + "\t" + digest + "\n");
+            writer.flush();
+        }
+    }
+
+    /**
+     * Flushes and closes the log file. Digests put after this are only kept in memory, until the next {@link #load()}.
+     *
+     * @throws IOException if the log file could not be written
+     */
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            try {
+                writer.flush();
+            }
+            finally {
+                writer.close();
+                writer = null;
+            }
+        }
+    }
+
+    private static String entryKey(DatasetVersionKey key, String algorithm) {
+        return algorithm + "\t" + key.getSpaceName() + "\t" + key.getMajorVersion() + "\t" + key.getMinorVersion();
+    }
+}
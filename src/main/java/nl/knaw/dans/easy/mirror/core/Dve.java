@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A Dataset Version Export (DVE) in an inbox. Its name is parsed once, when it is detected, and carried with it through the pipeline, together with the times
+ * at which it reached each stage.
+ */
+public final class Dve {
+    private final Path path;
+    private final ExportedDatasetVersionName name;
+    private final String invalidNameMessage;
+    private final long[] stageTimes = new long[Stage.values().length];
+    private volatile long arrivedAt;
+
+    /**
+     * The stages of the pipeline, in order. Each is marked when the step leading to it has finished.
+     */
+    public enum Stage {
+        DETECTED,
+        /**
+         * No longer being written; handed over for processing.
+         */
+        READY,
+        VALIDATED,
+        /**
+         * Taken from the queue by a worker.
+         */
+        STARTED,
+        /**
+         * Renamed into the claim directory of this node, when the inboxes are shared with other nodes.
+         */
+        CLAIMED,
+        XML_DELETED,
+        /**
+         * Checked against the DVEs already in the store.
+         */
+        CHECKED,
+        CONTAINER_CREATED,
+        MOVED,
+        /**
+         * Recorded in the manifests and the index of the store.
+         */
+        STORED
+    }
+
+    public Dve(Path path) {
+        this.path = path;
+        mark(Stage.DETECTED);
+        ExportedDatasetVersionName parsed = null;
+        String invalidMessage = null;
+        try {
+            parsed = new ExportedDatasetVersionName(path.getFileName().toString());
+        }
+        catch (IllegalArgumentException e) {
+            invalidMessage = e.getMessage();
+        }
+        this.name = parsed;
+        this.invalidNameMessage = invalidMessage;
+    }
+
+    /**
+     * @param newPath where the file of the DVE was moved to
+     * @return the DVE at its new path, with the stage times and arrival time of this one
+     */
+    public Dve movedTo(Path newPath) {
+        Dve moved = new Dve(newPath);
+        synchronized (this) {
+            System.arraycopy(stageTimes, 0, moved.stageTimes, 0, stageTimes.length);
+        }
+        moved.arrivedAt = arrivedAt;
+        return moved;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public boolean hasValidName() {
+        return name != null;
+    }
+
+    /**
+     * @return the parsed name
+     * @throws IllegalArgumentException if the name does not conform to the dataset version export naming pattern
+     */
+    public ExportedDatasetVersionName getName() {
+        if (name == null) {
+            throw new IllegalArgumentException(invalidNameMessage);
+        }
+        return name;
+    }
+
+    /**
+     * @return the DataCite metadata file exported with this DVE, if the name is valid; the file may not exist
+     */
+    public Optional<Path> getXmlFile() {
+        return name == null ? Optional.empty() : Optional.of(path.resolveSibling(name.getXmlName()));
+    }
+
+    /**
+     * Records that the DVE reached a stage now. The later stages are cleared, so that a retry does not leave the times of the previous attempt behind.
+     *
+     * @param stage the stage
+     */
+    public synchronized void mark(Stage stage) {
+        stageTimes[stage.ordinal()] = System.currentTimeMillis();
+        for (int i = stage.ordinal() + 1; i < stageTimes.length; i++) {
+            stageTimes[i] = 0;
+        }
+    }
+
+    /**
+     * @return the times in milliseconds since the epoch at which the DVE reached each stage, for the stages it reached
+     */
+    public synchronized Map<Stage, Long> getStageTimes() {
+        Map<Stage, Long> times = new EnumMap<>(Stage.class);
+        for (Stage stage : Stage.values()) {
+            if (stageTimes[stage.ordinal()] != 0) {
+                times.put(stage, stageTimes[stage.ordinal()]);
+            }
+        }
+        return times;
+    }
+
+    /**
+     * @return the last modified time of the file when it was found, which is when it arrived in the inbox, unless it was preserved by the copy; 0 if unknown
+     */
+    public long getArrivedAt() {
+        return arrivedAt;
+    }
+
+    public void setArrivedAt(long arrivedAt) {
+        this.arrivedAt = arrivedAt;
+    }
+
+    @Override
+    public String toString() {
+        return path.getFileName().toString();
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * How long the processing of one DVE took, in total and per stage. The duration of a stage is the time from the previous stage the DVE reached.
+ */
+public final class DveLatency {
+    private final String dve;
+    private final MirrorTask.Outcome outcome;
+    private final long completedAt;
+    private final long total;
+    private final long detectionLag;
+    private final Map<Dve.Stage, Long> stages;
+
+    public DveLatency(String dve, MirrorTask.Outcome outcome, long completedAt, long total, long detectionLag, Map<Dve.Stage, Long> stages) {
+        this.dve = dve;
+        this.outcome = outcome;
+        this.completedAt = completedAt;
+        this.total = total;
+        this.detectionLag = detectionLag;
+        this.stages = Collections.unmodifiableMap(stages);
+    }
+
+    public String getDve() {
+        return dve;
+    }
+
+    public MirrorTask.Outcome getOutcome() {
+        return outcome;
+    }
+
+    public long getCompletedAt() {
+        return completedAt;
+    }
+
+    /**
+     * @return the time in milliseconds from detection to the last stage reached
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * @return the time in milliseconds from the last modification of the file to its detection, or -1 if unknown; not part of the total
+     */
+    public long getDetectionLag() {
+        return detectionLag;
+    }
+
+    /**
+     * @return the duration in milliseconds of each stage reached after detection
+     */
+    public Map<Dve.Stage, Long> getStages() {
+        return stages;
+    }
+
+    static String metricName(Dve.Stage stage) {
+        return stage.name().toLowerCase(Locale.ROOT).replace('_', '-');
+    }
+
+    /**
+     * @return the latencies as key=value pairs on one line, for logging and the slowest-dves task
+     */
+    @Override
+    public String toString() {
+        StringBuilder line = new StringBuilder();
+        line.append("dve=").append(dve).append(" outcome=").append(outcome).append(" total=").append(total).append("ms");
+        if (detectionLag >= 0) {
+            line.append(" detection-lag=").append(detectionLag).append("ms");
+        }
+        for (Map.Entry<Dve.Stage, Long> stage : stages.entrySet()) {
+            line.append(' ').append(metricName(stage.getKey())).append('=').append(stage.getValue()).append("ms");
+        }
+        return line.toString();
+    }
+}
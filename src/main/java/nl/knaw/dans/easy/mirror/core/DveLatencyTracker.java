@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Records how long each stage took for the DVEs that have been processed: in a timer per stage, in a ring buffer of the most recently processed DVEs from
+ * which the slowest can be listed, and in a log line for each DVE that took longer than a threshold.
+ */
+public class DveLatencyTracker {
+    private static final Logger log = LoggerFactory.getLogger(DveLatencyTracker.class);
+
+    private final long slowThreshold;
+    private final int recentSize;
+    private final Map<Dve.Stage, Timer> stageTimers = new EnumMap<>(Dve.Stage.class);
+    private final Timer detectionLag;
+    private final Timer total;
+    private final Deque<DveLatency> recent;
+
+    /**
+     * @param slowThreshold the total time in milliseconds above which a DVE is logged
+     * @param recentSize    the number of most recently processed DVEs to keep
+     */
+    public DveLatencyTracker(long slowThreshold, int recentSize, MetricRegistry metrics) {
+        this.slowThreshold = slowThreshold;
+        this.recentSize = recentSize;
+        this.recent = new ArrayDeque<>(recentSize);
+        for (Dve.Stage stage : Dve.Stage.values()) {
+            if (stage != Dve.Stage.DETECTED) {
+                stageTimers.put(stage, metrics.timer(MetricRegistry.name(DveLatencyTracker.class, "stage", DveLatency.metricName(stage))));
+            }
+        }
+        this.detectionLag = metrics.timer(MetricRegistry.name(DveLatencyTracker.class, "detection-lag"));
+        this.total = metrics.timer(MetricRegistry.name(DveLatencyTracker.class, "total"));
+    }
+
+    /**
+     * Records the latencies of a DVE of which the processing has finished.
+     *
+     * @param dve     the DVE
+     * @param outcome the outcome of the processing
+     * @return the latencies
+     */
+    public DveLatency complete(Dve dve, MirrorTask.Outcome outcome) {
+        Map<Dve.Stage, Long> times = dve.getStageTimes();
+        Long detected = times.get(Dve.Stage.DETECTED);
+        Map<Dve.Stage, Long> stages = new EnumMap<>(Dve.Stage.class);
+        long previous = detected;
+        for (Map.Entry<Dve.Stage, Long> time : times.entrySet()) {
+            if (time.getKey() != Dve.Stage.DETECTED) {
+                long duration = Math.max(0, time.getValue() - previous);
+                stages.put(time.getKey(), duration);
+                stageTimers.get(time.getKey()).update(duration, TimeUnit.MILLISECONDS);
+                previous = time.getValue();
+            }
+        }
+        long lag = dve.getArrivedAt() == 0 ? -1 : Math.max(0, detected - dve.getArrivedAt());
+        if (lag >= 0) {
+            detectionLag.update(lag, TimeUnit.MILLISECONDS);
+        }
+        long totalTime = previous - detected;
+        total.update(totalTime, TimeUnit.MILLISECONDS);
+
+        DveLatency latency = new DveLatency(dve.toString(), outcome, System.currentTimeMillis(), totalTime, lag, stages);
+        synchronized (recent) {
+            if (recent.size() == recentSize) {
+                recent.removeFirst();
+            }
+            recent.addLast(latency);
+        }
+        if (totalTime > slowThreshold) {
+            log.warn("Slow DVE: {}", latency);
+        }
+        return latency;
+    }
+
+    /**
+     * @param count the maximum number of DVEs to return
+     * @return the slowest of the most recently processed DVEs, slowest first
+     */
+    public List<DveLatency> getSlowest(int count) {
+        List<DveLatency> copy;
+        synchronized (recent) {
+            copy = new ArrayList<>(recent);
+        }
+        return copy.stream()
+            .sorted(Comparator.comparingLong(DveLatency::getTotal).reversed())
+            .limit(count)
+            .collect(Collectors.toList());
+    }
+}
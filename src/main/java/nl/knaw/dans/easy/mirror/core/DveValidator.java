@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import org.apache.commons.codec.binary.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Checks that a DVE is a zipped bag before it is stored. Only the central directory of the ZIP is read to check that there is a single bag directory with a
+ * bagit.txt and at least one payload manifest, and that every file listed in the manifests is present. Optionally the payload files are streamed from the ZIP
+ * and their checksums compared to one of the manifests. Nothing is extracted to disk.
+ */
+public class DveValidator {
+    private static final Logger log = LoggerFactory.getLogger(DveValidator.class);
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final String[] PREFERRED_MANIFESTS = { "sha256", "sha512", "sha1", "md5" };
+
+    private final boolean verifyPayload;
+
+    /**
+     * @param verifyPayload whether to compare the checksums of the payload files to the manifest
+     */
+    public DveValidator(boolean verifyPayload) {
+        this.verifyPayload = verifyPayload;
+    }
+
+    /**
+     * @param dve the DVE to validate
+     * @return the reason the DVE is not valid, or empty if it is valid
+     */
+    public Optional<String> validate(Dve dve) {
+        if (!dve.hasValidName()) {
+            return Optional.of("Invalid name");
+        }
+        try (ZipFile zip = new ZipFile(dve.getPath().toFile())) {
+            return validate(zip);
+        }
+        catch (IOException e) {
+            log.debug("Could not read {} as ZIP", dve, e);
+            return Optional.of("Not a readable ZIP file: " + e.getMessage());
+        }
+        catch (RuntimeException e) {
+            // ZipFile throws IllegalArgumentException for entry names that are not valid in its charset, for instance
+            log.debug("Could not read {} as ZIP", dve, e);
+            return Optional.of("Not a valid ZIP file: " + e);
+        }
+    }
+
+    private Optional<String> validate(ZipFile zip) throws IOException {
+        String bagDir = null;
+        Map<String, ZipEntry> files = new HashMap<>();
+        Enumeration<? extends ZipEntry> entries = zip.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            int slash = entry.getName().indexOf('/');
+            String topDir = slash == -1 ? "" : entry.getName().substring(0, slash + 1);
+            if (topDir.isEmpty()) {
+                return Optional.of("File outside of bag directory: " + entry.getName());
+            }
+            if (bagDir == null) {
+                bagDir = topDir;
+            }
+            else if (!bagDir.equals(topDir)) {
+                return Optional.of("More than one top-level directory: " + bagDir + " and " + topDir);
+            }
+            if (!entry.isDirectory()) {
+                files.put(entry.getName().substring(slash + 1), entry);
+            }
+        }
+        if (bagDir == null) {
+            return Optional.of("Empty ZIP file");
+        }
+        if (!files.containsKey("bagit.txt")) {
+            return Optional.of("No bagit.txt in bag");
+        }
+        List<String> manifests = new ArrayList<>();
+        for (String name : files.keySet()) {
+            if (name.startsWith("manifest-") && name.endsWith(".txt") && name.indexOf('/') == -1) {
+                manifests.add(name);
+            }
+        }
+        if (manifests.isEmpty()) {
+            return Optional.of("No payload manifest in bag");
+        }
+        String verified = selectManifest(manifests);
+        for (String manifest : manifests) {
+            boolean verify = verifyPayload && manifest.equals(verified);
+            Optional<String> problem = checkManifest(zip, files, manifest, verify);
+            if (problem.isPresent()) {
+                return problem;
+            }
+        }
+        return Optional.empty();
+    }
+
+    private Optional<String> checkManifest(ZipFile zip, Map<String, ZipEntry> files, String manifest, boolean verify) throws IOException {
+        MessageDigest digest = verify ? createDigest(manifest) : null;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(zip.getInputStream(files.get(manifest)), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+", 2);
+                if (fields.length != 2) {
+                    return Optional.of("Invalid line in " + manifest + ": " + line);
+                }
+                String path = decodePath(fields[1].trim());
+                ZipEntry entry = files.get(path);
+                if (entry == null) {
+                    return Optional.of("File in " + manifest + " not found in bag: " + path);
+                }
+                if (digest != null && !fields[0].equalsIgnoreCase(digest(zip, entry, digest))) {
+                    return Optional.of("Checksum mismatch in " + manifest + " for " + path);
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    private String digest(ZipFile zip, ZipEntry entry, MessageDigest digest) throws IOException {
+        digest.reset();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = zip.getInputStream(entry)) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    private static String selectManifest(List<String> manifests) {
+        for (String algorithm : PREFERRED_MANIFESTS) {
+            if (manifests.contains("manifest-" + algorithm + ".txt")) {
+                return "manifest-" + algorithm + ".txt";
+            }
+        }
+        return null;
+    }
+
+    private static MessageDigest createDigest(String manifest) {
+        String algorithm = manifest.substring("manifest-".length(), manifest.length() - ".txt".length());
+        try {
+            // manifest-sha256.txt -> SHA-256
+            return MessageDigest.getInstance(algorithm.startsWith("sha") ? "SHA-" + algorithm.substring(3) : algorithm.toUpperCase());
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Unsupported manifest algorithm: " + algorithm, e);
+        }
+    }
+
+    // BagIt 1.0 percent-encodes CR, LF and % in manifest paths
+    private static String decodePath(String path) {
+        if (path.indexOf('%') == -1) {
+            return path;
+        }
+        return path.replace("%0A", "\n").replace("%0a", "\n").replace("%0D", "\r").replace("%0d", "\r").replace("%25", "%");
+    }
+}
@@ -15,9 +15,6 @@
  */
 package nl.knaw.dans.easy.mirror.core;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 /* DUPLICATED FROM dans-dataverse-client-lib, so that the latter can stay at target level 11 */
 
 /**
@@ -29,16 +26,21 @@ public class ExportedDatasetVersionName {
      Reverse-engineered from edu.harvard.iq.dataverse.engine.command.impl.LocalSubmitToArchiveCommand, the pattern that the local filename should adhere to is:
 
      SPACENAME + ('-' + SCHEMA + '.') + 'v' + MAJOR + '.' + MINOR + EXTENSION
+
+     SPACENAME consists of [A-Za-z0-9-], SCHEMA is 'datacite', MAJOR and MINOR are [0-9]+ and EXTENSION is '.zip' or '.xml'. As SPACENAME cannot contain a '.', the
+     name is parsed in a single scan from the end, without a regular expression.
      */
-    private static final String SPACENAME_PATTERN = "(?<spacename>[A-Za-z0-9-]+?)";
-    private static final String SCHEMA_PATTERN = "(-(?<schema>datacite)\\.)?";
-    private static final String DATASET_VERSION_PATTERN = "v(?<major>[0-9]+).(?<minor>[0-9]+)";
-    private static final String EXTENSION_PATTERN = "(?<extension>.zip|.xml)";
-    private static final Pattern PATTERN = Pattern.compile(SPACENAME_PATTERN + SCHEMA_PATTERN + DATASET_VERSION_PATTERN + EXTENSION_PATTERN);
+    private static final String SCHEMA_PART = "-datacite.";
+    private static final String ZIP = ".zip";
+    private static final String XML = ".xml";
 
-    private final String spaceName;
+    private final String name;
+    private final int spaceNameEnd;
+    private final int versionStart;
     private final int majorVersion;
     private final int minorVersion;
+    private final boolean zip;
+    private String spaceName;
 
     /**
      * Creates a new object to parse the name of one of the exported files. It works on both the exported ZIP and XML files. Only pass in the base name, not the complete path.
@@ -46,12 +48,33 @@ public class ExportedDatasetVersionName {
      * @param name the name to parse
      */
     public ExportedDatasetVersionName(String name) {
-        Matcher matcher = PATTERN.matcher(name);
-        if (!matcher.matches())
-            throw new IllegalArgumentException(String.format("Name does not conform to dataset version export naming pattern: %s", name));
-        spaceName = matcher.group("spacename");
-        majorVersion = Integer.parseInt(matcher.group("major"));
-        minorVersion = Integer.parseInt(matcher.group("minor"));
+        this.name = name;
+        int end = name.length() - ZIP.length();
+        if (end < 0)
+            throw invalid(name);
+        zip = name.startsWith(ZIP, end);
+        if (!zip && !name.startsWith(XML, end))
+            throw invalid(name);
+
+        int minorStart = skipDigitsBackwards(name, end);
+        if (minorStart == end || minorStart == 0 || name.charAt(minorStart - 1) != '.')
+            throw invalid(name);
+        int majorEnd = minorStart - 1;
+        int majorStart = skipDigitsBackwards(name, majorEnd);
+        if (majorStart == majorEnd || majorStart == 0 || name.charAt(majorStart - 1) != 'v')
+            throw invalid(name);
+        versionStart = majorStart - 1;
+        majorVersion = parseInt(name, majorStart, majorEnd);
+        minorVersion = parseInt(name, minorStart, end);
+
+        spaceNameEnd = name.startsWith(SCHEMA_PART, versionStart - SCHEMA_PART.length()) ? versionStart - SCHEMA_PART.length() : versionStart;
+        if (spaceNameEnd <= 0)
+            throw invalid(name);
+        for (int i = 0; i < spaceNameEnd; i++) {
+            char c = name.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '-'))
+                throw invalid(name);
+        }
     }
 
     /**
@@ -60,6 +83,9 @@ public class ExportedDatasetVersionName {
      * @return the spacename
      */
     public String getSpaceName() {
+        if (spaceName == null) {
+            spaceName = name.substring(0, spaceNameEnd);
+        }
         return spaceName;
     }
 
@@ -70,4 +96,61 @@ public class ExportedDatasetVersionName {
     public int getMinorVersion() {
         return minorVersion;
     }
+
+    /**
+     * @return true for the exported bag, false for the exported metadata file
+     */
+    public boolean isZip() {
+        return zip;
+    }
+
+    /**
+     * The part of the name of the exported bag after the last '-' of the space name, including the version and extension, e.g. xcfq1bv1.0.zip. The container
+     * in the EASY mirror store and the volume are derived from it; for a space name whose last part is short, the version is part of the container name.
+     *
+     * @return the shard key
+     */
+    public String getShardKey() {
+        int lastDash = name.lastIndexOf('-', spaceNameEnd - 1);
+        if (zip) {
+            return name.substring(lastDash + 1);
+        }
+        return name.substring(lastDash + 1, spaceNameEnd) + name.substring(versionStart, name.length() - XML.length()) + ZIP;
+    }
+
+    /**
+     * @return the name of the exported bag for this dataset version
+     */
+    public String getZipName() {
+        return zip ? name : getSpaceName() + name.substring(versionStart, name.length() - XML.length()) + ZIP;
+    }
+
+    /**
+     * @return the name of the exported DataCite metadata file that accompanies the bag for this dataset version
+     */
+    public String getXmlName() {
+        return getSpaceName() + SCHEMA_PART + name.substring(versionStart, name.length() - ZIP.length()) + XML;
+    }
+
+    private static int skipDigitsBackwards(String s, int end) {
+        int i = end;
+        while (i > 0 && s.charAt(i - 1) >= '0' && s.charAt(i - 1) <= '9') {
+            i--;
+        }
+        return i;
+    }
+
+    private static int parseInt(String s, int start, int end) {
+        if (end - start > 9)
+            throw invalid(s);
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            value = value * 10 + (s.charAt(i) - '0');
+        }
+        return value;
+    }
+
+    private static IllegalArgumentException invalid(String name) {
+        return new IllegalArgumentException(String.format("Name does not conform to dataset version export naming pattern: %s", name));
+    }
 }
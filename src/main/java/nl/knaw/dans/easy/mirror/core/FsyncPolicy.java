@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+/**
+ * What is flushed to disk when a DVE is copied into the store, before its source is deleted.
+ */
+public enum FsyncPolicy {
+    /**
+     * Nothing; leaves it to the operating system. A crash shortly after storing a DVE may lose it, because its source has already been deleted.
+     */
+    NONE,
+    /**
+     * The contents of the copy, before it is renamed into place.
+     */
+    FILE,
+    /**
+     * The contents of the copy, and the container directory after the rename, so that the new name is durable too.
+     */
+    FILE_AND_DIRECTORY
+}
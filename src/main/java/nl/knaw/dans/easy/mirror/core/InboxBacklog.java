@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import nl.knaw.dans.easy.mirror.core.config.Inbox;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * The DVEs found in an inbox by a scan, waiting to be handed to processing. The scan lists the inbox only once and reads the attributes of each entry only once;
+ * entries that cannot be read are skipped and recorded. The DVEs are handed over oldest first, so the backlog holds the path of every DVE in the inbox; the
+ * progress is logged every {@value #PROGRESS_INTERVAL} DVEs. When processing cannot accept more DVEs, the drain stops and is resumed where it left off on the
+ * next call, without listing the inbox again.
+ */
+public class InboxBacklog {
+    private static final Logger log = LoggerFactory.getLogger(InboxBacklog.class);
+    static final String PENDING_FILE = ".mirror-pending";
+    static final int PROGRESS_INTERVAL = 1000;
+
+    private final Inbox inbox;
+    private final InboxStats stats;
+    private final Deque<Path> pending = new ArrayDeque<>();
+    private final Map<Path, String> skipped = new ConcurrentHashMap<>();
+    private volatile boolean rescanRequested = true;
+    private int total;
+    private int handedOver;
+    private long drainStarted;
+
+    public InboxBacklog(Inbox inbox, InboxStats stats) {
+        this.inbox = inbox;
+        this.stats = stats;
+    }
+
+    /**
+     * Requests a new scan of the inbox when the current backlog has been drained, for example because a newly detected DVE could not be accepted.
+     */
+    public void requestRescan() {
+        rescanRequested = true;
+    }
+
+    /**
+     * Hands DVEs to processing, scanning the inbox first if requested and the previous backlog has been drained.
+     *
+     * @param submit accepts a DVE for processing, or returns false if it cannot accept more DVEs at the moment
+     * @return true if the backlog has been drained completely
+     */
+    public synchronized boolean drain(Predicate<Path> submit) {
+        if (pending.isEmpty() && rescanRequested) {
+            rescanRequested = false;
+            scan();
+        }
+        while (!pending.isEmpty()) {
+            if (!submit.test(pending.peekFirst())) {
+                log.debug("{}: processing queue full, {} DVEs left in backlog", inbox.getPath(), pending.size());
+                return false;
+            }
+            pending.removeFirst();
+            handedOver++;
+            if (handedOver % PROGRESS_INTERVAL == 0 || (pending.isEmpty() && total > PROGRESS_INTERVAL)) {
+                long elapsed = Math.max(1, System.currentTimeMillis() - drainStarted);
+                log.info("{}: handed over {}/{} DVEs from backlog ({} DVEs/s)", inbox.getPath(), handedOver, total, handedOver * 1000L / elapsed);
+            }
+        }
+        return !rescanRequested;
+    }
+
+    /**
+     * Saves the DVEs that were accepted but not processed when the service stopped, followed by the rest of the backlog, in the inbox. They are handed over
+     * first after {@link #restore()}.
+     *
+     * @param notProcessed DVEs from this inbox taken from processing, in the order in which they should be resumed
+     * @throws IOException if the file could not be written
+     */
+    public synchronized void save(List<Path> notProcessed) throws IOException {
+        Set<Path> toSave = new LinkedHashSet<>(notProcessed);
+        toSave.addAll(pending);
+        Path file = inbox.getPath().resolve(PENDING_FILE);
+        Path tmp = inbox.getPath().resolve(PENDING_FILE + ".tmp");
+        Files.write(tmp, toSave.stream().map(p -> p.getFileName().toString()).collect(Collectors.toList()), StandardCharsets.UTF_8);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info("{}: saved {} pending DVEs", inbox.getPath(), toSave.size());
+    }
+
+    /**
+     * Puts the DVEs saved by {@link #save(List)} in front of the backlog, so that they are handed over before the inbox is scanned again. The scan still follows,
+     * to find the DVEs that arrived while the service was stopped.
+     *
+     * @throws IOException if the file could not be read
+     */
+    public synchronized void restore() throws IOException {
+        Path file = inbox.getPath().resolve(PENDING_FILE);
+        if (Files.notExists(file)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        List<String> names = Files.readAllLines(file, StandardCharsets.UTF_8);
+        for (int i = names.size() - 1; i >= 0; i--) {
+            Path dve = inbox.getPath().resolve(names.get(i));
+            pending.addFirst(dve);
+            stats.seen(dve, now);
+        }
+        Files.delete(file);
+        log.info("{}: resuming with {} saved pending DVEs", inbox.getPath(), names.size());
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return the entries that could not be read during the scans, with the reason
+     */
+    public Map<Path, String> getSkipped() {
+        return Collections.unmodifiableMap(skipped);
+    }
+
+    private void scan() {
+        long start = System.currentTimeMillis();
+        List<Candidate> candidates = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(inbox.getPath(), InboxBacklog::isZip)) {
+            for (Path entry : entries) {
+                try {
+                    BasicFileAttributes attrs = Files.readAttributes(entry, BasicFileAttributes.class);
+                    if (attrs.isRegularFile()) {
+                        candidates.add(new Candidate(entry, attrs.lastModifiedTime().toMillis()));
+                        skipped.remove(entry);
+                    }
+                }
+                catch (IOException e) {
+                    recordSkipped(entry, e);
+                }
+            }
+        }
+        catch (DirectoryIteratorException e) {
+            log.error("{}: scan aborted after {} DVEs, continuing with those", inbox.getPath(), candidates.size(), e.getCause());
+            rescanRequested = true;
+        }
+        catch (IOException e) {
+            log.error("{}: could not scan inbox", inbox.getPath(), e);
+            rescanRequested = true;
+        }
+        candidates.sort(Comparator.comparingLong((Candidate c) -> c.lastModified).thenComparing(c -> c.path));
+        for (Candidate candidate : candidates) {
+            pending.addLast(candidate.path);
+            stats.seen(candidate.path, candidate.lastModified);
+        }
+        if (!rescanRequested) {
+            stats.retain(pending);
+        }
+        total = candidates.size();
+        handedOver = 0;
+        drainStarted = System.currentTimeMillis();
+        log.debug("{}: found {} DVEs in {} ms", inbox.getPath(), total, drainStarted - start);
+    }
+
+    private void recordSkipped(Path entry, IOException e) {
+        if (skipped.put(entry, e.toString()) == null) {
+            log.warn("{}: skipping unreadable entry {}", inbox.getPath(), entry.getFileName(), e);
+        }
+    }
+
+    private static boolean isZip(Path entry) {
+        return entry.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".zip");
+    }
+
+    private static class Candidate {
+        private final Path path;
+        private final long lastModified;
+
+        private Candidate(Path path, long lastModified) {
+            this.path = path;
+            this.lastModified = lastModified;
+        }
+    }
+}
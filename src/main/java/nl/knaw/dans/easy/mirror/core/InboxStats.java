@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import com.codahale.metrics.Meter;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Live counters for an inbox: the DVEs detected but not yet processed, with the time each arrived, and the rates of processed and failed DVEs. All values can
+ * be read without scanning the pending DVEs.
+ */
+public class InboxStats {
+    private final Map<Path, Long> pending = new HashMap<>();
+    // The number of pending DVEs per arrival time. DVEs are not detected in the order in which they arrived, so the oldest is not the first one detected
+    private final TreeMap<Long, Integer> arrivals = new TreeMap<>();
+    private final Meter processed;
+    private final Meter failed;
+
+    public InboxStats() {
+        this(new Meter(), new Meter());
+    }
+
+    public InboxStats(Meter processed, Meter failed) {
+        this.processed = processed;
+        this.failed = failed;
+    }
+
+    /**
+     * Records a detected DVE, unless it is already pending.
+     *
+     * @param dve       the DVE
+     * @param timestamp the time the DVE arrived in the inbox, in milliseconds since the epoch
+     */
+    public synchronized void seen(Path dve, long timestamp) {
+        if (pending.putIfAbsent(dve, timestamp) == null) {
+            arrivals.merge(timestamp, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Records that a DVE has left the inbox.
+     *
+     * @param dve the DVE
+     */
+    public synchronized void done(Path dve) {
+        Long timestamp = pending.remove(dve);
+        if (timestamp != null) {
+            forget(timestamp);
+        }
+    }
+
+    /**
+     * Forgets all pending DVEs that are not in the given collection, such as DVEs removed from the inbox by hand.
+     *
+     * @param present the DVEs currently in the inbox
+     */
+    public synchronized void retain(Collection<Path> present) {
+        Set<Path> presentSet = new HashSet<>(present);
+        Iterator<Map.Entry<Path, Long>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Path, Long> entry = it.next();
+            if (!presentSet.contains(entry.getKey())) {
+                it.remove();
+                forget(entry.getValue());
+            }
+        }
+    }
+
+    private void forget(long timestamp) {
+        arrivals.computeIfPresent(timestamp, (t, count) -> count == 1 ? null : count - 1);
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return the age in milliseconds of the DVE that has been pending longest, or 0 if none are pending
+     */
+    public synchronized long getOldestPendingAge() {
+        if (arrivals.isEmpty()) {
+            return 0;
+        }
+        return Math.max(0, System.currentTimeMillis() - arrivals.firstKey());
+    }
+
+    public void recordOutcome(MirrorTask.Outcome outcome) {
+        if (outcome == MirrorTask.Outcome.HELD || outcome == MirrorTask.Outcome.LOST) {
+            return;
+        }
+        processed.mark();
+        if (outcome == MirrorTask.Outcome.FAILED || outcome == MirrorTask.Outcome.QUARANTINED) {
+            failed.mark();
+        }
+    }
+
+    /**
+     * @return the fraction of the DVEs processed in about the last five minutes that failed, or 0 if none were processed
+     */
+    public double getFailureRate() {
+        double processedRate = processed.getFiveMinuteRate();
+        return processedRate <= 0 ? 0 : Math.min(1.0, failed.getFiveMinuteRate() / processedRate);
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import nl.knaw.dans.easy.mirror.core.config.Inbox;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Detects new DVEs in inboxes through file system events instead of polling. Files moved into an inbox are reported by the {@link WatchService} as
+ * ENTRY_CREATE, like newly created files. When events are lost (OVERFLOW), the inbox is scanned again. The backlog of an inbox is drained on start, after
+ * OVERFLOW and on request, and this is continued every check interval until the backlog is empty.
+ */
+public class InboxWatcher implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(InboxWatcher.class);
+
+    /*
+     * File system types on which inotify does not see changes made by other hosts.
+     */
+    private static final Set<String> NETWORK_FILE_SYSTEM_TYPES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+        "nfs", "nfs4", "cifs", "smbfs", "smb3", "fuse.sshfs", "9p", "afs", "gpfs", "lustre")));
+
+    private final WatchService watchService;
+    private final Map<WatchKey, Inbox> inboxes = new ConcurrentHashMap<>();
+    private final Set<Inbox> rescanRequested = ConcurrentHashMap.newKeySet();
+    private final BiConsumer<Inbox, Path> onCreate;
+    private final Consumer<Inbox> onOverflow;
+    private final Predicate<Inbox> onDrain;
+    private final long rescanCheckInterval;
+    private Thread thread;
+
+    /**
+     * @param onCreate            called for each new ZIP file
+     * @param onOverflow          called when events for an inbox were lost
+     * @param onDrain             drains the backlog of an inbox; returns true if the backlog is empty
+     * @param rescanCheckInterval the interval in milliseconds for continuing to drain backlogs
+     * @throws IOException if no watch service could be created
+     */
+    public InboxWatcher(BiConsumer<Inbox, Path> onCreate, Consumer<Inbox> onOverflow, Predicate<Inbox> onDrain, long rescanCheckInterval) throws IOException {
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.onCreate = onCreate;
+        this.onOverflow = onOverflow;
+        this.onDrain = onDrain;
+        this.rescanCheckInterval = rescanCheckInterval;
+    }
+
+    /**
+     * Returns whether file system events can be trusted for the given path.
+     *
+     * @param path the inbox path
+     * @return false if the path is on a network file system
+     */
+    public static boolean supportsEvents(Path path) {
+        try {
+            String type = Files.getFileStore(path).type().toLowerCase(Locale.ROOT);
+            return !NETWORK_FILE_SYSTEM_TYPES.contains(type);
+        }
+        catch (IOException e) {
+            log.warn("Could not determine file system type of {}", path, e);
+            return false;
+        }
+    }
+
+    public void register(Inbox inbox) throws IOException {
+        inboxes.put(inbox.getPath().register(watchService, ENTRY_CREATE), inbox);
+    }
+
+    /**
+     * Requests the watcher thread to drain the backlog of the inbox, for example because not all DVEs could be accepted for processing.
+     *
+     * @param inbox the inbox to drain
+     */
+    public void requestRescan(Inbox inbox) {
+        if (inboxes.containsValue(inbox)) {
+            rescanRequested.add(inbox);
+        }
+    }
+
+    public void start() {
+        for (Inbox inbox : inboxes.values()) {
+            rescanRequested.add(inbox);
+        }
+        thread = new Thread(this, "inbox-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() throws IOException {
+        watchService.close();
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                processRescans();
+                WatchKey key = watchService.poll(rescanCheckInterval, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    processEvents(key);
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ClosedWatchServiceException e) {
+            log.debug("Watch service closed");
+        }
+    }
+
+    private void processRescans() {
+        for (Inbox inbox : inboxes.values()) {
+            // Cleared before draining, so that a request made during the drain is not lost
+            if (rescanRequested.remove(inbox)) {
+                log.trace("Draining backlog of {}", inbox.getPath());
+                try {
+                    if (!onDrain.test(inbox)) {
+                        rescanRequested.add(inbox);
+                    }
+                }
+                catch (RuntimeException e) {
+                    log.error("Could not drain backlog of {}, retrying later", inbox.getPath(), e);
+                    rescanRequested.add(inbox);
+                }
+            }
+        }
+    }
+
+    private void processEvents(WatchKey key) {
+        Inbox inbox = inboxes.get(key);
+        if (inbox == null) {
+            key.cancel();
+            return;
+        }
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                log.warn("Events lost for {}, rescanning", inbox.getPath());
+                onOverflow.accept(inbox);
+                rescanRequested.add(inbox);
+            }
+            else if (event.kind() == ENTRY_CREATE) {
+                Path file = inbox.getPath().resolve((Path) event.context());
+                log.trace("ENTRY_CREATE: {}", file);
+                if (file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".zip") && Files.isRegularFile(file)) {
+                    onCreate.accept(inbox, file);
+                }
+            }
+        }
+        if (!key.reset()) {
+            log.error("Inbox {} can no longer be watched", inbox.getPath());
+            inboxes.remove(key);
+        }
+    }
+}
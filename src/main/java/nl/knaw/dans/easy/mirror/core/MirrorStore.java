@@ -15,32 +15,745 @@
  */
 package nl.knaw.dans.easy.mirror.core;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileStore;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+/**
+ * The EASY mirror store, spread over one or more volumes. Each volume has its own index, and all indexes are kept in memory, so that lookups never have to
+ * probe the volumes. A new DVE is placed on a volume chosen by rendezvous hashing on its shard key, so that the placement is deterministic and adding a volume
+ * only moves the placement of a proportional share of new DVEs. Volumes that are read-only or do not have enough free space are skipped.
+ */
 public class MirrorStore {
-    private final Path baseDir;
+    private static final Logger log = LoggerFactory.getLogger(MirrorStore.class);
+    private static final int INDEX_CHECKPOINT_INTERVAL = 10000;
+    private static final long DEFAULT_SPACE_CHECK_INTERVAL = 10000;
+    private static final int INDEX_REBUILD_PARALLELISM = 8;
+    private static final int DEFAULT_TRANSFER_BUFFER_SIZE = 1 << 20;
+    static final String INDEX_DIR = ".index";
+    private static final String JOURNAL_FILE = "moves.journal";
+    private static final String DIGESTS_FILE = "digests.log";
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final List<Volume> volumes;
+    private final StoreLayout layout;
+    private final List<StoreLayout> previousLayouts;
+    private final long minFreeSpace;
+    private final long spaceCheckInterval;
+    private final List<String> fixityAlgorithms;
+    private final TransferStrategy transfer;
+    private final FsyncPolicy fsyncPolicy;
+    private final Histogram transferRate;
+    private final String nodeId;
+    private final String indexDir;
+
+    private static class Volume {
+        private final Path baseDir;
+        private final MirrorStoreIndex index;
+        private final MoveJournal journal;
+        private final DigestIndex digests;
+        private final long hashSeed;
+        private volatile boolean open;
+        private StoreLock lock;
+        // Cached, so that admitting a DVE does not cost a system call; lowered by each DVE admitted until the next check
+        private final AtomicLong usableSpace = new AtomicLong();
+        private volatile boolean writable;
+        private volatile long spaceCheckedAt;
+
+        private Volume(Path baseDir, String indexDir) {
+            this.baseDir = baseDir;
+            this.index = new MirrorStoreIndex(baseDir, baseDir.resolve(indexDir), INDEX_CHECKPOINT_INTERVAL, INDEX_REBUILD_PARALLELISM);
+            this.journal = new MoveJournal(baseDir.resolve(indexDir).resolve(JOURNAL_FILE));
+            this.digests = new DigestIndex(baseDir.resolve(indexDir).resolve(DIGESTS_FILE));
+            this.hashSeed = fnv1a(FNV_OFFSET_BASIS, baseDir.toAbsolutePath().normalize().toString());
+        }
+
+        private long score(String shardKey) {
+            return mix(fnv1a(hashSeed, shardKey));
+        }
+    }
 
     public MirrorStore(Path baseDir) {
-        this.baseDir = baseDir;
+        this(baseDir, Collections.singletonList("SHA-256"), new MetricRegistry());
+    }
+
+    public MirrorStore(Path baseDir, List<String> fixityAlgorithms, MetricRegistry metrics) {
+        this(Collections.singletonList(baseDir), 0, fixityAlgorithms, metrics);
+    }
+
+    public MirrorStore(List<Path> volumes, long minFreeSpace, List<String> fixityAlgorithms, MetricRegistry metrics) {
+        this(volumes, StoreLayout.DEFAULT, Collections.emptyList(), minFreeSpace, DEFAULT_SPACE_CHECK_INTERVAL, fixityAlgorithms,
+            new TransferStrategy.StreamTransfer(DEFAULT_TRANSFER_BUFFER_SIZE), FsyncPolicy.FILE_AND_DIRECTORY, metrics);
+    }
+
+    /**
+     * @param volumes            the base directories of the volumes of the store
+     * @param layout             the layout in which new DVEs are stored
+     * @param previousLayouts    other layouts in which DVEs may still be found, during or after a migration to a new layout
+     * @param minFreeSpace       the number of bytes that must remain free on a volume after storing a DVE on it
+     * @param spaceCheckInterval the number of milliseconds for which the free space of a volume is cached
+     * @param fixityAlgorithms   the checksums to record in the manifests next to the stored DVEs; the first one is used to verify copies
+     * @param transfer           how DVEs are copied to the store when they cannot be renamed into it
+     * @param fsyncPolicy        what is flushed to disk after copying a DVE to the store
+     * @param metrics            the registry to register the metrics of the store with
+     */
+    public MirrorStore(List<Path> volumes, StoreLayout layout, List<StoreLayout> previousLayouts, long minFreeSpace, long spaceCheckInterval,
+        List<String> fixityAlgorithms, TransferStrategy transfer, FsyncPolicy fsyncPolicy, MetricRegistry metrics) {
+        this(volumes, layout, previousLayouts, minFreeSpace, spaceCheckInterval, fixityAlgorithms, transfer, fsyncPolicy, null, metrics);
+    }
+
+    /**
+     * @param nodeId the node that writes to the store, when several nodes share it; each node keeps its own index and move journal, in .index-&lt;nodeId&gt;
+     *               in each volume. Null when only one node writes to the store.
+     */
+    public MirrorStore(List<Path> volumes, StoreLayout layout, List<StoreLayout> previousLayouts, long minFreeSpace, long spaceCheckInterval,
+        List<String> fixityAlgorithms, TransferStrategy transfer, FsyncPolicy fsyncPolicy, String nodeId, MetricRegistry metrics) {
+        if (volumes.isEmpty()) {
+            throw new IllegalArgumentException("At least one volume is required");
+        }
+        if (fixityAlgorithms.isEmpty()) {
+            throw new IllegalArgumentException("At least one fixity algorithm is required");
+        }
+        Checksums.checkSupported(fixityAlgorithms);
+        this.nodeId = nodeId;
+        this.indexDir = nodeId == null ? INDEX_DIR : INDEX_DIR + "-" + nodeId;
+        this.volumes = volumes.stream().map(volume -> new Volume(volume, indexDir)).collect(Collectors.toList());
+        this.layout = layout;
+        this.previousLayouts = previousLayouts;
+        this.minFreeSpace = minFreeSpace;
+        this.spaceCheckInterval = spaceCheckInterval;
+        this.fixityAlgorithms = fixityAlgorithms;
+        this.transfer = transfer;
+        this.fsyncPolicy = fsyncPolicy;
+        this.transferRate = metrics.histogram(MetricRegistry.name(MirrorStore.class, "transfer-bytes-per-second"));
+        metrics.register(MetricRegistry.name(MirrorStore.class, "stored-dves"), (Gauge<Integer>) this::size);
+        metrics.register(MetricRegistry.name(MirrorStore.class, "store-full"), (Gauge<Boolean>) this::isFull);
+        metrics.register(MetricRegistry.name(MirrorStore.class, "usable-space"), (Gauge<Long>) this::getUsableSpace);
+    }
+
+    /**
+     * Loads the indexes of the volumes and finishes or rolls back the moves that were interrupted by a crash, as recorded in the move journals. If this is not
+     * called explicitly, it is done on first use.
+     *
+     * @throws IOException if an index could not be loaded or rebuilt, or a journal could not be replayed
+     */
+    public void open() throws IOException {
+        for (Volume volume : volumes) {
+            open(volume);
+        }
+    }
+
+    private synchronized void open(Volume volume) throws IOException {
+        if (volume.open) {
+            return;
+        }
+        // Keeps migrate-store from reorganizing the volume while DVEs are stored in it
+        volume.lock = StoreLock.shared(volume.baseDir);
+        try {
+            volume.index.load();
+            volume.digests.load();
+            for (MoveJournal.Move move : volume.journal.open()) {
+                recover(volume, move);
+            }
+            volume.journal.recovered();
+            if (nodeId != null) {
+                mergeOtherNodes(volume);
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            volume.journal.close();
+            volume.digests.close();
+            volume.lock.close();
+            volume.lock = null;
+            throw e;
+        }
+        volume.open = true;
+    }
+
+    /**
+     * When several nodes write to the store, adds the DVEs that the other nodes stored, as recorded in their indexes, to the index of this node. DVEs that
+     * another node stored after this are found the next time.
+     *
+     * @return the number of DVEs added
+     * @throws IOException if the indexes of the other nodes could not be listed
+     */
+    public int mergeOtherNodes() throws IOException {
+        ensureIndexLoaded();
+        int added = 0;
+        if (nodeId != null) {
+            for (Volume volume : volumes) {
+                added += mergeOtherNodes(volume);
+            }
+        }
+        return added;
+    }
+
+    private int mergeOtherNodes(Volume volume) throws IOException {
+        List<Path> others;
+        try (Stream<Path> dirs = Files.list(volume.baseDir)) {
+            others = dirs.filter(d -> d.getFileName().toString().startsWith(INDEX_DIR + "-") && !d.getFileName().toString().equals(indexDir))
+                .collect(Collectors.toList());
+        }
+        int added = 0;
+        for (Path other : others) {
+            added += volume.index.merge(other);
+        }
+        if (added > 0) {
+            log.debug("Added {} DVEs stored by other nodes on {} to the index", added, volume.baseDir);
+        }
+        return added;
     }
 
-    public void store(Path dveZip) throws IOException {
-        Path container = calculateContainer(dveZip);
+    /*
+     * The target only ever appears under its final name by an atomic rename of the complete file, so:
+     * - no target: nothing was moved; the source is still in the inbox and will be processed again
+     * - target but also source: the copy was renamed into place, but the source not yet deleted
+     * - target only: the move itself completed; manifests or index may not have been updated
+     */
+    private void recover(Volume volume, MoveJournal.Move move) throws IOException {
+        Path source = move.getSource();
+        Path target = move.getTarget();
+        Files.deleteIfExists(target.resolveSibling("." + target.getFileName() + ".part"));
+        if (Files.notExists(target)) {
+            log.info("Rolled back interrupted move of {}", source.getFileName());
+            return;
+        }
+        if (Files.exists(source)) {
+            String algorithm = fixityAlgorithms.get(0);
+            List<String> first = Collections.singletonList(algorithm);
+            if (Files.size(source) != Files.size(target) || !Checksums.compute(source, first).equals(Checksums.compute(target, first))) {
+                log.warn("Interrupted move of {} left an incomplete copy, removing it", source.getFileName());
+                Files.delete(target);
+                return;
+            }
+            Files.delete(source);
+        }
+        String fileName = target.getFileName().toString();
+        DatasetVersionKey key = DatasetVersionKey.of(new ExportedDatasetVersionName(fileName));
+        Map<String, String> checksums = Checksums.compute(target, fixityAlgorithms);
+        volume.digests.put(key, getDigestAlgorithm(), checksums.get(getDigestAlgorithm()));
+        checksums.keySet().removeIf(algorithm -> manifestContains(target.getParent(), algorithm, fileName));
+        writeManifests(target.getParent(), fileName, checksums);
+        if (!volume.index.contains(key)) {
+            volume.index.add(new StoredDve(key, target, Files.size(target), Files.getLastModifiedTime(target).toMillis()));
+        }
+        log.info("Finished interrupted move of {}", fileName);
+    }
+
+    private boolean manifestContains(Path container, String algorithm, String fileName) {
+        return readManifest(container, algorithm, fileName).isPresent();
+    }
+
+    private Optional<String> readManifest(Path container, String algorithm, String fileName) {
+        String suffix = "  " + fileName;
+        try (Stream<String> lines = Files.lines(container.resolve(Checksums.manifestName(algorithm)), StandardCharsets.UTF_8)) {
+            return lines.filter(line -> line.endsWith(suffix)).map(line -> line.substring(0, line.length() - suffix.length())).reduce((first, last) -> last);
+        }
+        catch (IOException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Writes a checkpoint of the index. DVEs stored after this are still recorded in the index log.
+     *
+     * @throws IOException if the checkpoint could not be written
+     */
+    public void checkpoint() throws IOException {
+        for (Volume volume : volumes) {
+            volume.index.checkpoint();
+        }
+    }
+
+    /**
+     * Closes the move journals and digest indexes and releases the volumes, so that migrate-store may run. The store is opened again on next use.
+     *
+     * @throws IOException if a journal or a lock could not be closed
+     */
+    public synchronized void close() throws IOException {
+        for (Volume volume : volumes) {
+            if (volume.open) {
+                volume.open = false;
+                volume.journal.close();
+                volume.digests.close();
+                volume.lock.close();
+                volume.lock = null;
+            }
+        }
+    }
+
+    /**
+     * Moves the DVE into the store and appends its checksums to the manifests in its container. If the DVE is on another file system than the store, it is
+     * copied to a temporary file while computing the checksums, the copy is synced and verified, renamed into place and only then is the original deleted.
+     *
+     * @param dve the DVE to store
+     * @return the stored DVE
+     * @throws IOException if the DVE could not be stored
+     */
+    public StoredDve store(Dve dve) throws IOException {
+        DatasetVersionKey key = DatasetVersionKey.of(dve.getName());
+        ensureIndexLoaded();
+        Path dveZip = dve.getPath();
+        Volume volume = selectVolume(dve.getName(), Files.size(dveZip));
+        Path container = layout.container(volume.baseDir, dve.getName());
         Files.createDirectories(container);
-        Files.move(dveZip, container.resolve(dveZip.getFileName()));
+        dve.mark(Dve.Stage.CONTAINER_CREATED);
+        Path target = container.resolve(dveZip.getFileName());
+        if (Files.exists(target)) {
+            // Stored by another node since this index last caught up with it, or missing from an index that was out of date
+            volume.index.add(new StoredDve(key, target, Files.size(target), Files.getLastModifiedTime(target).toMillis()));
+            throw new AlreadyStoredException(target.toString());
+        }
+        long move = volume.journal.begin(dveZip, target);
+        try {
+            Map<String, String> checksums;
+            try {
+                Files.move(dveZip, target, StandardCopyOption.ATOMIC_MOVE);
+                checksums = Checksums.compute(target, fixityAlgorithms);
+            }
+            catch (AtomicMoveNotSupportedException e) {
+                log.debug("{} is on another file system than the store, copying", dveZip.getFileName());
+                checksums = copyVerified(dveZip, target);
+            }
+            dve.mark(Dve.Stage.MOVED);
+            writeManifests(container, target.getFileName().toString(), checksums);
+            StoredDve stored = new StoredDve(key, target, Files.size(target), System.currentTimeMillis());
+            volume.index.add(stored);
+            volume.digests.put(key, getDigestAlgorithm(), checksums.get(getDigestAlgorithm()));
+            volume.journal.commit(move);
+            dve.mark(Dve.Stage.STORED);
+            return stored;
+        }
+        catch (IOException | RuntimeException e) {
+            volume.journal.abandon(move);
+            throw e;
+        }
+    }
+
+    public StoredDve store(Path dveZip) throws IOException {
+        return store(new Dve(dveZip));
+    }
+
+    public boolean contains(Dve dve) {
+        if (!dve.hasValidName()) {
+            return false;
+        }
+        return get(DatasetVersionKey.of(dve.getName())).isPresent();
     }
 
     public boolean contains(Path dveZip) {
-        return Files.exists(calculateContainer(dveZip).resolve(dveZip.getFileName()));
+        return contains(new Dve(dveZip));
+    }
+
+    /**
+     * @param key the dataset version to look up
+     * @return the stored DVE, on whichever volume it is
+     */
+    public Optional<StoredDve> get(DatasetVersionKey key) {
+        ensureIndexLoaded();
+        for (Volume volume : volumes) {
+            Optional<StoredDve> stored = find(volume, key);
+            if (stored.isPresent()) {
+                return stored;
+            }
+        }
+        return Optional.empty();
+    }
+
+    /*
+     * The index may be out of date, for instance when a checkpoint from before a restored backup is loaded, so the file is checked to exist before the index
+     * is trusted. This costs one system call, on a DVE that is about to be compared with an incoming one anyway.
+     */
+    private Optional<StoredDve> find(Volume volume, DatasetVersionKey key) {
+        Optional<StoredDve> stored = volume.index.get(key);
+        if (!stored.isPresent() || Files.exists(stored.get().getPath())) {
+            return stored;
+        }
+        try {
+            StoredDve located = locate(stored.get());
+            if (Files.exists(located.getPath())) {
+                return Optional.of(located);
+            }
+            log.warn("{} is in the index, but not in the store; removing it from the index", located.getPath());
+            volume.index.remove(key);
+            return Optional.empty();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the algorithm of the digests returned by {@link #getStoredDigest(DatasetVersionKey)}
+     */
+    public String getDigestAlgorithm() {
+        return fixityAlgorithms.get(0);
+    }
+
+    /**
+     * Returns the digest of a stored DVE. It is taken from the digest index; for DVEs stored before the digest index existed, it is looked up in the manifest
+     * of the container or, failing that, computed, and then added to the digest index. Each stored DVE is therefore read at most once.
+     *
+     * @param key the dataset version
+     * @return the digest in hex, or empty if the dataset version is not stored
+     * @throws IOException if the digest had to be computed and the DVE could not be read
+     */
+    public Optional<String> getStoredDigest(DatasetVersionKey key) throws IOException {
+        ensureIndexLoaded();
+        String algorithm = getDigestAlgorithm();
+        for (Volume volume : volumes) {
+            Optional<StoredDve> stored = find(volume, key);
+            if (!stored.isPresent()) {
+                continue;
+            }
+            Optional<String> cached = volume.digests.get(key, algorithm);
+            if (cached.isPresent()) {
+                return cached;
+            }
+            Path path = stored.get().getPath();
+            Optional<String> digest = readManifest(path.getParent(), algorithm, path.getFileName().toString());
+            if (!digest.isPresent()) {
+                log.debug("No cached {} of {}, computing it", algorithm, path.getFileName());
+                digest = Optional.of(Checksums.compute(path, Collections.singletonList(algorithm)).get(algorithm));
+            }
+            volume.digests.put(key, algorithm, digest.get());
+            return digest;
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Checks that a stored DVE is still where the index says it is. If it is not, because it was moved to another layout by a migration, it is looked up in the
+     * other layouts and, if found there, the index is updated.
+     *
+     * @param dve a DVE from the index
+     * @return the DVE with its current location
+     * @throws IOException if the index could not be updated
+     */
+    public StoredDve locate(StoredDve dve) throws IOException {
+        if (Files.exists(dve.getPath())) {
+            return dve;
+        }
+        String fileName = dve.getPath().getFileName().toString();
+        ExportedDatasetVersionName name = new ExportedDatasetVersionName(fileName);
+        for (Volume volume : volumes) {
+            if (!dve.getPath().startsWith(volume.baseDir)) {
+                continue;
+            }
+            for (StoreLayout candidate : getLayouts()) {
+                Path path = candidate.container(volume.baseDir, name).resolve(fileName);
+                if (Files.exists(path)) {
+                    log.debug("{} moved to {}, updating index", fileName, path);
+                    StoredDve moved = new StoredDve(dve.getKey(), path, dve.getSize(), dve.getStoredAt());
+                    volume.index.add(moved);
+                    return moved;
+                }
+            }
+        }
+        return dve;
+    }
+
+    /**
+     * @return the layout for new DVEs, followed by the previous layouts
+     */
+    public List<StoreLayout> getLayouts() {
+        List<StoreLayout> layouts = new ArrayList<>();
+        layouts.add(layout);
+        layouts.addAll(previousLayouts);
+        return layouts;
+    }
+
+    /**
+     * @return the base directories of the volumes of the store
+     */
+    public List<Path> getVolumes() {
+        return volumes.stream().map(v -> v.baseDir).collect(Collectors.toList());
+    }
+
+    /**
+     * @return all stored DVEs on all volumes, in the order of their keys
+     */
+    public List<StoredDve> getAll() {
+        ensureIndexLoaded();
+        List<StoredDve> all = new ArrayList<>(size());
+        for (Volume volume : volumes) {
+            all.addAll(volume.index.getAll());
+        }
+        all.sort(Comparator.comparing(StoredDve::getKey));
+        return all;
+    }
+
+    /**
+     * @param spaceName the space name of a dataset
+     * @return the stored versions of the dataset on all volumes, oldest first
+     */
+    public List<StoredDve> getVersions(String spaceName) {
+        ensureIndexLoaded();
+        if (volumes.size() == 1) {
+            return volumes.get(0).index.getVersions(spaceName);
+        }
+        List<StoredDve> versions = new ArrayList<>();
+        for (Volume volume : volumes) {
+            versions.addAll(volume.index.getVersions(spaceName));
+        }
+        versions.sort(Comparator.comparing(StoredDve::getKey));
+        return versions;
+    }
+
+    public Optional<StoredDve> getLatestVersion(String spaceName) {
+        ensureIndexLoaded();
+        return volumes.stream()
+            .map(v -> v.index.getLatestVersion(spaceName))
+            .filter(Optional::isPresent)
+            .map(Optional::get)
+            .max(Comparator.comparing(StoredDve::getKey));
+    }
+
+    /**
+     * @return the number and total size of the DVEs per shard, summed over all volumes, in order of shard
+     */
+    public SortedMap<String, ShardStats> getShardStats() {
+        ensureIndexLoaded();
+        SortedMap<String, ShardStats> shards = new TreeMap<>();
+        for (Volume volume : volumes) {
+            for (ShardStats stats : volume.index.getShardStats().values()) {
+                shards.merge(stats.getShard(), stats, ShardStats::plus);
+            }
+        }
+        return shards;
+    }
+
+    /**
+     * @return the number of DVEs in the store, or 0 if the indexes have not been loaded yet
+     */
+    public int size() {
+        int size = 0;
+        for (Volume volume : volumes) {
+            size += volume.index.isLoaded() ? volume.index.size() : 0;
+        }
+        return size;
+    }
+
+    private void ensureIndexLoaded() {
+        for (Volume volume : volumes) {
+            if (!volume.open) {
+                try {
+                    open(volume);
+                }
+                catch (IOException e) {
+                    throw new IllegalStateException("Could not load index of EASY mirror store volume " + volume.baseDir, e);
+                }
+            }
+        }
+    }
+
+    private Volume selectVolume(ExportedDatasetVersionName name, long size) throws StoreFullException {
+        for (Volume volume : placementOrder(name)) {
+            if (reserve(volume, size)) {
+                return volume;
+            }
+        }
+        throw new StoreFullException(String.format("No volume of the store has room for %s (%d bytes)", name.getZipName(), size));
+    }
+
+    /*
+     * Takes the size of the DVE off the cached free space, so that DVEs admitted together before the next check cannot overfill the volume.
+     */
+    private boolean reserve(Volume volume, long size) {
+        refreshSpace(volume);
+        if (!volume.writable) {
+            log.debug("Volume {} is read-only, skipping", volume.baseDir);
+            return false;
+        }
+        while (true) {
+            long usable = volume.usableSpace.get();
+            if (usable - size < minFreeSpace) {
+                log.debug("Volume {} is full, skipping", volume.baseDir);
+                return false;
+            }
+            if (volume.usableSpace.compareAndSet(usable, usable - size)) {
+                return true;
+            }
+        }
+    }
+
+    private void refreshSpace(Volume volume) {
+        if (volume.spaceCheckedAt != 0 && System.currentTimeMillis() - volume.spaceCheckedAt < spaceCheckInterval) {
+            return;
+        }
+        synchronized (volume) {
+            long now = System.currentTimeMillis();
+            if (volume.spaceCheckedAt != 0 && now - volume.spaceCheckedAt < spaceCheckInterval) {
+                return;
+            }
+            try {
+                FileStore fileStore = Files.getFileStore(volume.baseDir);
+                volume.writable = !fileStore.isReadOnly() && Files.isWritable(volume.baseDir);
+                volume.usableSpace.set(fileStore.getUsableSpace());
+            }
+            catch (IOException e) {
+                log.warn("Could not determine free space of volume {}, skipping", volume.baseDir, e);
+                volume.writable = false;
+            }
+            volume.spaceCheckedAt = now;
+        }
+    }
+
+    /**
+     * @return true if no volume has more than minFreeSpace left, according to the cached free space
+     */
+    public boolean isFull() {
+        for (Volume volume : volumes) {
+            refreshSpace(volume);
+            if (volume.writable && volume.usableSpace.get() > minFreeSpace) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the cached usable space of the writable volumes, in bytes
+     */
+    public long getUsableSpace() {
+        long total = 0;
+        for (Volume volume : volumes) {
+            refreshSpace(volume);
+            if (volume.writable) {
+                total += volume.usableSpace.get();
+            }
+        }
+        return total;
+    }
+
+    public long getMinFreeSpace() {
+        return minFreeSpace;
+    }
+
+    private List<Volume> placementOrder(ExportedDatasetVersionName name) {
+        if (volumes.size() == 1) {
+            return volumes;
+        }
+        String shardKey = name.getShardKey();
+        List<Volume> ordered = new ArrayList<>(volumes);
+        ordered.sort(Comparator.comparingLong((Volume v) -> v.score(shardKey)).reversed());
+        return ordered;
+    }
+
+    private Map<String, String> copyVerified(Path source, Path target) throws IOException {
+        Path tmp = target.resolveSibling("." + target.getFileName() + ".part");
+        Files.deleteIfExists(tmp);
+        Map<String, String> checksums;
+        try {
+            long start = System.nanoTime();
+            checksums = transfer.copy(source, tmp, fixityAlgorithms);
+            recordTransfer(source, Files.size(tmp), System.nanoTime() - start);
+            if (fsyncPolicy != FsyncPolicy.NONE) {
+                force(tmp, StandardOpenOption.WRITE);
+            }
+            // Reads the copy back through the page cache, so this catches a copy that went wrong on its way, not a disk that does not return what was written;
+            // the scrubber checks the latter
+            String algorithm = fixityAlgorithms.get(0);
+            String written = Checksums.compute(tmp, Collections.singletonList(algorithm)).get(algorithm);
+            if (!written.equals(checksums.get(algorithm))) {
+                throw new IOException(String.format("%s of copy of %s does not match: %s != %s", algorithm, source.getFileName(), written, checksums.get(algorithm)));
+            }
+            if (Files.notExists(source)) {
+                // Taken over by another node while copying; that node stores it
+                throw new NoSuchFileException(source.toString(), null, "disappeared while being copied to the store");
+            }
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        if (fsyncPolicy == FsyncPolicy.FILE_AND_DIRECTORY) {
+            try {
+                force(target.getParent(), StandardOpenOption.READ);
+            }
+            catch (IOException e) {
+                // Not supported on all platforms
+                log.debug("Could not sync directory {}", target.getParent(), e);
+            }
+        }
+        if (!Files.deleteIfExists(source)) {
+            // Taken over by another node after the check above; the copy is complete, so the other node finds it stored
+            log.warn("{} disappeared after being copied to the store", source.getFileName());
+        }
+        return checksums;
+    }
+
+    private void recordTransfer(Path source, long bytes, long nanos) {
+        long bytesPerSecond = nanos == 0 ? bytes : bytes * 1_000_000_000L / nanos;
+        transferRate.update(bytesPerSecond);
+        log.debug("Copied {} ({} bytes) with {} transfer in {} ms, {} MiB/s", source.getFileName(), bytes, transfer, nanos / 1_000_000, bytesPerSecond >> 20);
+    }
+
+    private static void force(Path path, StandardOpenOption mode) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, mode)) {
+            channel.force(true);
+        }
+    }
+
+    private void writeManifests(Path container, String fileName, Map<String, String> checksums) throws IOException {
+        for (Map.Entry<String, String> checksum : checksums.entrySet()) {
+            // A single append per line, so that concurrent stores into the same container do not interleave
+            Files.write(container.resolve(Checksums.manifestName(checksum.getKey())),
+                (checksum.getValue() + "  " + fileName + "\n").getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE);
+        }
+    }
+
+    /**
+     * @param name the name of a DVE
+     * @return the container of the DVE on the volume it is placed on when all volumes have room
+     */
+    Path calculateContainer(ExportedDatasetVersionName name) {
+        return layout.container(placementOrder(name).get(0).baseDir, name);
+    }
+
+    private static long fnv1a(long hash, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            hash ^= s.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return hash;
     }
 
-    private Path calculateContainer(Path dveZip) {
-        String[] parts = dveZip.getFileName().toString().split("-");
-        String top = parts[parts.length - 1].substring(0, 2);
-        String bottom = parts[parts.length - 1].substring(2, 4);
-        return baseDir.resolve(Paths.get(top, bottom));
+    // Finalizer of MurmurHash3, to spread the FNV hash over all bits before comparing scores
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
     }
 }
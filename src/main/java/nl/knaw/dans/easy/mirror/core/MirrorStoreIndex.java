@@ -0,0 +1,403 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * In-memory index of the DVEs in the EASY mirror store, with views by space name and aggregates per shard that are kept up to date with every addition, so
+ * that queries never touch the disk. The index is persisted as a checkpoint file, holding the complete index, and a log file, to which each
+ * addition since the last checkpoint is appended. When the checkpoint is missing, unreadable or was written for a different store, the index is rebuilt by
+ * walking the store.
+ */
+public class MirrorStoreIndex {
+    private static final Logger log = LoggerFactory.getLogger(MirrorStoreIndex.class);
+    private static final int MAGIC = 0x454d5349; // "EMSI"
+    private static final int FORMAT_VERSION = 1;
+    private static final String CHECKPOINT_FILE = "index.bin";
+    private static final String LOG_FILE = "index.log";
+    // Deep enough for any reasonable store layout, also when containers of different layouts exist side by side during a migration
+    private static final int MAX_CONTAINER_DEPTH = 8;
+
+    private final Path baseDir;
+    private final Path indexDir;
+    private final int checkpointInterval;
+    private final int rebuildParallelism;
+    private final Map<DatasetVersionKey, StoredDve> entries = new ConcurrentHashMap<>();
+    private final Map<String, NavigableMap<DatasetVersionKey, StoredDve>> bySpaceName = new ConcurrentHashMap<>();
+    private final Map<String, ShardStats> shards = new ConcurrentHashMap<>();
+    private DataOutputStream logOutput;
+    private int logRecords;
+    private volatile boolean loaded;
+
+    /**
+     * @param baseDir            the base directory of the store
+     * @param indexDir           the directory for the index files
+     * @param checkpointInterval the number of additions after which a new checkpoint is written
+     * @param rebuildParallelism the number of threads used to walk the store when rebuilding
+     */
+    public MirrorStoreIndex(Path baseDir, Path indexDir, int checkpointInterval, int rebuildParallelism) {
+        this.baseDir = baseDir;
+        this.indexDir = indexDir;
+        this.checkpointInterval = checkpointInterval;
+        this.rebuildParallelism = rebuildParallelism;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Loads the index from disk, or rebuilds it if it is missing or stale, and writes a fresh checkpoint.
+     *
+     * @throws IOException if the index could not be loaded or rebuilt
+     */
+    public synchronized void load() throws IOException {
+        if (loaded) {
+            return;
+        }
+        Files.createDirectories(indexDir);
+        long start = System.currentTimeMillis();
+        clear();
+        if (readCheckpoint()) {
+            readLog();
+            log.info("Loaded index of {} DVEs in {} ms", entries.size(), System.currentTimeMillis() - start);
+        }
+        else {
+            rebuild();
+            log.info("Rebuilt index of {} DVEs in {} ms", entries.size(), System.currentTimeMillis() - start);
+        }
+        loaded = true;
+        checkpoint();
+    }
+
+    public boolean contains(DatasetVersionKey key) {
+        return entries.containsKey(key);
+    }
+
+    public Optional<StoredDve> get(DatasetVersionKey key) {
+        return Optional.ofNullable(entries.get(key));
+    }
+
+    public Collection<StoredDve> getAll() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @param spaceName the space name of a dataset
+     * @return the stored versions of the dataset, oldest first
+     */
+    public List<StoredDve> getVersions(String spaceName) {
+        NavigableMap<DatasetVersionKey, StoredDve> versions = bySpaceName.get(spaceName);
+        return versions == null ? Collections.emptyList() : new ArrayList<>(versions.values());
+    }
+
+    public Optional<StoredDve> getLatestVersion(String spaceName) {
+        NavigableMap<DatasetVersionKey, StoredDve> versions = bySpaceName.get(spaceName);
+        return Optional.ofNullable(versions).map(NavigableMap::lastEntry).map(Map.Entry::getValue);
+    }
+
+    /**
+     * @return the number and total size of the DVEs per shard, keyed by the path of the shard relative to the base directory
+     */
+    public Map<String, ShardStats> getShardStats() {
+        return Collections.unmodifiableMap(shards);
+    }
+
+    /**
+     * Records a newly stored DVE.
+     *
+     * @param dve the stored DVE
+     * @throws IOException if the addition could not be logged
+     */
+    public synchronized void add(StoredDve dve) throws IOException {
+        put(dve);
+        if (logOutput == null) {
+            return;
+        }
+        writeRecord(logOutput, dve);
+        logOutput.flush();
+        if (++logRecords >= checkpointInterval) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Forgets a DVE that is no longer in the store. The removal is not logged, but only saved by the next checkpoint; until then, a DVE that is loaded from
+     * the log again is found missing again.
+     *
+     * @param key the dataset version
+     * @throws IOException if a checkpoint was due and could not be written
+     */
+    public synchronized void remove(DatasetVersionKey key) throws IOException {
+        StoredDve previous = entries.remove(key);
+        if (previous == null) {
+            return;
+        }
+        NavigableMap<DatasetVersionKey, StoredDve> versions = bySpaceName.get(key.getSpaceName());
+        if (versions != null) {
+            versions.remove(key);
+        }
+        ShardStats removed = shardStatsOf(previous);
+        shards.merge(removed.getShard(), removed, ShardStats::minus);
+        if (logOutput != null && ++logRecords >= checkpointInterval) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Adds the DVEs from the index of another node that writes to the same store. They are not logged, as they are found in the other index again on the next
+     * load. The other node may be writing its index meanwhile; what it has not finished writing is found on the next merge.
+     *
+     * @param otherIndexDir the index directory of the other node
+     * @return the number of DVEs that were not in this index yet
+     * @throws IOException if the other index could not be read
+     */
+    public synchronized int merge(Path otherIndexDir) throws IOException {
+        int before = entries.size();
+        Consumer<StoredDve> addNew = dve -> {
+            if (!entries.containsKey(dve.getKey())) {
+                put(dve);
+            }
+        };
+        readRecords(otherIndexDir.resolve(CHECKPOINT_FILE), true, addNew);
+        readRecords(otherIndexDir.resolve(LOG_FILE), false, addNew);
+        return entries.size() - before;
+    }
+
+    private void readRecords(Path file, boolean counted, Consumer<StoredDve> consumer) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (!readHeader(in)) {
+                return;
+            }
+            int count = counted ? in.readInt() : Integer.MAX_VALUE;
+            for (int i = 0; i < count; i++) {
+                consumer.accept(readRecord(in));
+            }
+        }
+        catch (NoSuchFileException | EOFException e) {
+            // Not written yet, or an incomplete last record
+        }
+    }
+
+    /**
+     * Deletes the checkpoint and the log in indexDir, so that the index is rebuilt from the volume when it is next loaded. Used after the DVEs in the volume
+     * have been moved, as the index records where each DVE was found.
+     *
+     * @param indexDir the directory of the index
+     * @throws IOException if a file could not be deleted
+     */
+    public static void invalidate(Path indexDir) throws IOException {
+        Files.deleteIfExists(indexDir.resolve(CHECKPOINT_FILE));
+        Files.deleteIfExists(indexDir.resolve(LOG_FILE));
+    }
+
+    /**
+     * Writes the complete index to a new checkpoint file and starts a new, empty log.
+     *
+     * @throws IOException if the checkpoint could not be written
+     */
+    public synchronized void checkpoint() throws IOException {
+        if (!loaded) {
+            return;
+        }
+        Path tmp = indexDir.resolve(CHECKPOINT_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            writeHeader(out);
+            out.writeInt(entries.size());
+            for (StoredDve dve : entries.values()) {
+                writeRecord(out, dve);
+            }
+        }
+        Files.move(tmp, indexDir.resolve(CHECKPOINT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (logOutput != null) {
+            logOutput.close();
+        }
+        logOutput = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexDir.resolve(LOG_FILE),
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)));
+        writeHeader(logOutput);
+        logOutput.flush();
+        logRecords = 0;
+    }
+
+    private boolean readCheckpoint() {
+        Path checkpoint = indexDir.resolve(CHECKPOINT_FILE);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(checkpoint), 1 << 16))) {
+            if (!readHeader(in)) {
+                log.warn("Index checkpoint {} is stale", checkpoint);
+                return false;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                StoredDve dve = readRecord(in);
+                put(dve);
+            }
+            return true;
+        }
+        catch (NoSuchFileException e) {
+            log.info("No index checkpoint found at {}", checkpoint);
+        }
+        catch (IOException e) {
+            log.warn("Could not read index checkpoint {}", checkpoint, e);
+        }
+        clear();
+        return false;
+    }
+
+    private void readLog() throws IOException {
+        Path logFile = indexDir.resolve(LOG_FILE);
+        if (!Files.exists(logFile)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(logFile), 1 << 16))) {
+            if (!readHeader(in)) {
+                return;
+            }
+            while (true) {
+                StoredDve dve = readRecord(in);
+                put(dve);
+            }
+        }
+        catch (EOFException e) {
+            // End of log, possibly with an incomplete last record
+        }
+    }
+
+    private void put(StoredDve dve) {
+        StoredDve previous = entries.put(dve.getKey(), dve);
+        bySpaceName.computeIfAbsent(dve.getKey().getSpaceName(), k -> new ConcurrentSkipListMap<>()).put(dve.getKey(), dve);
+        if (previous != null) {
+            ShardStats removed = shardStatsOf(previous);
+            shards.merge(removed.getShard(), removed, ShardStats::minus);
+        }
+        ShardStats added = shardStatsOf(dve);
+        shards.merge(added.getShard(), added, ShardStats::plus);
+    }
+
+    private ShardStats shardStatsOf(StoredDve dve) {
+        return new ShardStats(baseDir.relativize(dve.getPath().getParent()).toString(), 1, dve.getSize());
+    }
+
+    private void clear() {
+        entries.clear();
+        bySpaceName.clear();
+        shards.clear();
+    }
+
+    private void rebuild() throws IOException {
+        List<Path> topDirs;
+        try (Stream<Path> dirs = Files.list(baseDir)) {
+            topDirs = dirs.filter(d -> !d.getFileName().toString().startsWith(".") && Files.isDirectory(d)).collect(Collectors.toList());
+        }
+        ForkJoinPool pool = new ForkJoinPool(rebuildParallelism);
+        try {
+            pool.submit(() -> topDirs.parallelStream().forEach(this::indexTopDir)).get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while rebuilding index", e);
+        }
+        catch (ExecutionException e) {
+            throw new IOException("Could not rebuild index", e.getCause());
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    private void indexTopDir(Path topDir) {
+        try (Stream<Path> files = Files.find(topDir, MAX_CONTAINER_DEPTH, (p, attrs) -> attrs.isRegularFile() && p.getFileName().toString().endsWith(".zip"))) {
+            files.forEach(this::indexFile);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void indexFile(Path file) {
+        try {
+            ExportedDatasetVersionName name = new ExportedDatasetVersionName(file.getFileName().toString());
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            DatasetVersionKey key = DatasetVersionKey.of(name);
+            put(new StoredDve(key, file, attrs.size(), attrs.lastModifiedTime().toMillis()));
+        }
+        catch (IllegalArgumentException e) {
+            log.warn("Not a DVE, skipping: {}", file);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeHeader(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeUTF(baseDir.toAbsolutePath().normalize().toString());
+    }
+
+    private boolean readHeader(DataInputStream in) throws IOException {
+        return in.readInt() == MAGIC
+            && in.readInt() == FORMAT_VERSION
+            && in.readUTF().equals(baseDir.toAbsolutePath().normalize().toString());
+    }
+
+    private void writeRecord(DataOutputStream out, StoredDve dve) throws IOException {
+        out.writeUTF(dve.getKey().getSpaceName());
+        out.writeInt(dve.getKey().getMajorVersion());
+        out.writeInt(dve.getKey().getMinorVersion());
+        out.writeUTF(baseDir.relativize(dve.getPath()).toString());
+        out.writeLong(dve.getSize());
+        out.writeLong(dve.getStoredAt());
+    }
+
+    private StoredDve readRecord(DataInputStream in) throws IOException {
+        DatasetVersionKey key = new DatasetVersionKey(in.readUTF(), in.readInt(), in.readInt());
+        return new StoredDve(key, baseDir.resolve(in.readUTF()), in.readLong(), in.readLong());
+    }
+}
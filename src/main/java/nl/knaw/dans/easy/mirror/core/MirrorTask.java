@@ -15,54 +15,244 @@
  */
 package nl.knaw.dans.easy.mirror.core;
 
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Optional;
 
 public class MirrorTask  {
     private static final Logger log = LoggerFactory.getLogger(MirrorTask.class);
+    private static final String QUARANTINE_DIR = "quarantine";
+
+    public enum Outcome {
+        STORED,
+        DUPLICATE,
+        /**
+         * Failed with a transient error; the DVE was left in the inbox to be retried.
+         */
+        RETRY,
+        /**
+         * A DVE with the same name, but different contents, was already stored; the DVE was moved to the quarantine.
+         */
+        QUARANTINED,
+        /**
+         * The store has no room for the DVE; it was left in the inbox until there is room, without counting as an attempt.
+         */
+        HELD,
+        /**
+         * The DVE disappeared while it was being processed, because another node took it over; nothing was stored.
+         */
+        LOST,
+        FAILED
+    }
 
     private final Path failedBox;
     private final MirrorStore mirrorStore;
+    private final RetryPolicy retryPolicy;
+    private final Timer moveTimer;
+    private final Timer storeTimer;
+    private final Meter succeeded;
+    private final Meter duplicates;
+    private final Meter quarantined;
+    private final Meter retried;
+    private final Meter held;
+    private final Meter lost;
+    private final Meter failed;
+    private final Histogram bytesMoved;
+
+    public MirrorTask(Path failedBox, MirrorStore mirrorStore, MetricRegistry metrics) {
+        this(failedBox, mirrorStore, RetryPolicy.noRetries(), metrics);
+    }
 
-    public MirrorTask(Path failedBox, MirrorStore mirrorStore) {
+    public MirrorTask(Path failedBox, MirrorStore mirrorStore, RetryPolicy retryPolicy, MetricRegistry metrics) {
         this.failedBox = failedBox;
         this.mirrorStore = mirrorStore;
+        this.retryPolicy = retryPolicy;
+        this.moveTimer = metrics.timer(MetricRegistry.name(MirrorTask.class, "move"));
+        this.storeTimer = metrics.timer(MetricRegistry.name(MirrorTask.class, "store"));
+        this.succeeded = metrics.meter(MetricRegistry.name(MirrorTask.class, "succeeded"));
+        this.duplicates = metrics.meter(MetricRegistry.name(MirrorTask.class, "duplicates"));
+        this.quarantined = metrics.meter(MetricRegistry.name(MirrorTask.class, "quarantined"));
+        this.retried = metrics.meter(MetricRegistry.name(MirrorTask.class, "retried"));
+        this.held = metrics.meter(MetricRegistry.name(MirrorTask.class, "held"));
+        this.lost = metrics.meter(MetricRegistry.name(MirrorTask.class, "lost"));
+        this.failed = metrics.meter(MetricRegistry.name(MirrorTask.class, "failed"));
+        this.bytesMoved = metrics.histogram(MetricRegistry.name(MirrorTask.class, "bytes-moved"));
+    }
+
+    public Outcome move(Path datasetVersionExportZip) {
+        return move(new Dve(datasetVersionExportZip));
+    }
+
+    public Outcome move(Dve dve) {
+        return move(dve, 1);
+    }
+
+    /**
+     * Moves the DVE into the mirror store, or to the failedBox if that fails. If it fails with a transient error and the retry policy allows another attempt,
+     * or if the store is full, the DVE is left where it is.
+     *
+     * @param dve     the DVE to move
+     * @param attempt the number of this attempt, starting at 1
+     * @return the outcome
+     */
+    public Outcome move(Dve dve, int attempt) {
+        final Timer.Context context = moveTimer.time();
+        try {
+            return doMove(dve, attempt);
+        }
+        finally {
+            context.stop();
+        }
+    }
+
+    /*
+     * Only a byte-identical duplicate is deleted. The incoming DVE has to be read to compute its digest, but the digest of the stored DVE comes from the digest
+     * index of the store. If the stored DVE turns out to be gone, the incoming one is stored instead.
+     */
+    private Outcome handleDuplicate(Dve dve) throws IOException {
+        Path dveZip = dve.getPath();
+        Optional<String> stored = mirrorStore.getStoredDigest(DatasetVersionKey.of(dve.getName()));
+        if (!stored.isPresent()) {
+            log.warn("{} is no longer in the store, storing it again", dveZip.getFileName());
+            return store(dve);
+        }
+        String algorithm = mirrorStore.getDigestAlgorithm();
+        String incoming = Checksums.compute(dveZip, Collections.singletonList(algorithm)).get(algorithm);
+        if (stored.get().equals(incoming)) {
+            log.warn("DVE already stored: {}. Deleting DVE", dveZip.getFileName());
+            Files.delete(dveZip);
+            duplicates.mark();
+            log.info("SUCCESS. Done processing {}", dveZip.getFileName());
+            return Outcome.DUPLICATE;
+        }
+        String reason = String.format("Differs from stored DVE with the same name: %s %s, stored %s", algorithm, incoming, stored.get());
+        log.error("QUARANTINE. {}: {}", dveZip.getFileName(), reason);
+        Path quarantine = Files.createDirectories(failedBox.resolve(QUARANTINE_DIR));
+        Path target = quarantine.resolve(dveZip.getFileName());
+        if (Files.exists(target)) {
+            target = quarantine.resolve(System.currentTimeMillis() + "-" + dveZip.getFileName());
+        }
+        Files.write(quarantine.resolve(reasonFileName(target)), (reason + "\n").getBytes(StandardCharsets.UTF_8));
+        Files.move(dveZip, target);
+        quarantined.mark();
+        return Outcome.QUARANTINED;
     }
 
-    public void move(Path datasetVersionExportZip) {
+    /**
+     * Moves a DVE that failed validation to the failedBox, together with a file stating the reason.
+     *
+     * @param dve    the DVE
+     * @param reason why the DVE was rejected
+     * @return {@link Outcome#FAILED}
+     */
+    public Outcome reject(Dve dve, String reason) {
+        Path dveZip = dve.getPath();
+        failed.mark();
+        log.error("FAIL. Invalid DVE {}: {}; moving to failedBox.", dveZip.getFileName(), reason);
+        try {
+            Files.write(failedBox.resolve(reasonFileName(dveZip)), (reason + "\n").getBytes(StandardCharsets.UTF_8));
+            Files.move(dveZip, failedBox.resolve(dveZip.getFileName()));
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Cannot move invalid DVE to failedBox", e);
+        }
+        return Outcome.FAILED;
+    }
+
+    /**
+     * @param dveZip a DVE
+     * @return the name of the file in the failedBox that states why the DVE was rejected
+     */
+    public static String reasonFileName(Path dveZip) {
+        return dveZip.getFileName() + ".reason.txt";
+    }
+
+    private Outcome doMove(Dve dve, int attempt) {
+        Path datasetVersionExportZip = dve.getPath();
         log.info("Processing {}", datasetVersionExportZip.getFileName());
 
         try {
-            // check for valid DVE, class also used in MirroringService.getAssociatedXmlFile
-            new ExportedDatasetVersionName(datasetVersionExportZip.getFileName().toString());
+            // check for valid DVE; the name was parsed when the DVE was detected
+            dve.getName();
 
-            if (mirrorStore.contains(datasetVersionExportZip)) {
-                log.warn("DVE already stored: {}. Deleting DVE", datasetVersionExportZip.getFileName());
-                Files.delete(datasetVersionExportZip);
+            boolean duplicate = mirrorStore.contains(dve);
+            dve.mark(Dve.Stage.CHECKED);
+            if (duplicate) {
+                return handleDuplicate(dve);
             }
-            else
-                try {
-                    mirrorStore.store(datasetVersionExportZip);
-                }
-                catch (IOException e) {
-                    throw new IllegalStateException("Could not move DVE to EASY mirror store", e);
-                }
-            log.info("SUCCESS. Done processing {}", datasetVersionExportZip.getFileName());
-        }
-        catch (Exception e) {
-            // Java 8 still uses printStackTrace to output exceptions, so better to log all fatal exceptions  ourselves.
-            // Not including Errors here, because Errors include things like OOM, which will crash the whole service anyway.
-            try {
-                log.error("FAIL. Could not process DVE {}, moving to failedBox.", datasetVersionExportZip.getFileName(), e);
-                Files.move(datasetVersionExportZip, failedBox.resolve(datasetVersionExportZip.getFileName()));
+            else {
+                return store(dve);
             }
-            catch (IOException ioe) {
-                throw new IllegalStateException("Cannot move invalid DVE to failedBox", ioe);
+        }
+        catch (StoreFullException e) {
+            held.mark();
+            log.debug("Holding {} in inbox: {}", datasetVersionExportZip.getFileName(), e.getMessage());
+            return Outcome.HELD;
+        }
+        catch (NoSuchFileException e) {
+            if (Files.exists(datasetVersionExportZip)) {
+                return fail(dve, attempt, e);
             }
+            lost.mark();
+            log.warn("{} disappeared while being processed, probably taken over by another node", datasetVersionExportZip.getFileName());
+            return Outcome.LOST;
+        }
+        catch (Exception e) {
+            return fail(dve, attempt, e);
+        }
+    }
+
+    private Outcome store(Dve dve) throws IOException {
+        try {
+            bytesMoved.update(timedStore(dve).getSize());
+        }
+        catch (AlreadyStoredException e) {
+            log.info("{} was stored by another node meanwhile", dve.getPath().getFileName());
+            return handleDuplicate(dve);
+        }
+        succeeded.mark();
+        log.info("SUCCESS. Done processing {}", dve.getPath().getFileName());
+        return Outcome.STORED;
+    }
+
+    private StoredDve timedStore(Dve dve) throws IOException {
+        final Timer.Context context = storeTimer.time();
+        try {
+            return mirrorStore.store(dve);
+        }
+        finally {
+            context.stop();
+        }
+    }
+
+    private Outcome fail(Dve dve, int attempt, Exception e) {
+        Path datasetVersionExportZip = dve.getPath();
+        if (retryPolicy.shouldRetry(attempt, e)) {
+            retried.mark();
+            log.warn("Attempt {} to process {} failed with a transient error, will retry: {}", attempt, datasetVersionExportZip.getFileName(), e.toString());
+            return Outcome.RETRY;
+        }
+        // Java 8 still uses printStackTrace to output exceptions, so better to log all fatal exceptions  ourselves.
+        // Not including Errors here, because Errors include things like OOM, which will crash the whole service anyway.
+        failed.mark();
+        try {
+            log.error("FAIL. Could not process DVE {}, moving to failedBox.", datasetVersionExportZip.getFileName(), e);
+            Files.move(datasetVersionExportZip, failedBox.resolve(datasetVersionExportZip.getFileName()));
+            return Outcome.FAILED;
+        }
+        catch (IOException ioe) {
+            throw new IllegalStateException("Cannot move invalid DVE to failedBox", ioe);
         }
     }
 }
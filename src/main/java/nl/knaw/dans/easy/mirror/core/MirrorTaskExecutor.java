@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Runs tasks on DVEs on a fixed pool of worker threads. Each source (inbox) has its own queue, and a worker that becomes free takes the next task from the
+ * queues by smooth weighted round-robin, so that a burst in one source cannot starve the others. Together the queues hold at most maxQueueSize tasks; an equal
+ * share of that is kept free for each source, so that a burst in one source cannot fill the queues either. A DVE that is already queued or being processed is not
+ * accepted a second time, so repeated detection of the same file never leads to concurrent processing of it.
+ */
+public class MirrorTaskExecutor {
+    private static final Logger log = LoggerFactory.getLogger(MirrorTaskExecutor.class);
+
+    private final ThreadPoolExecutor executor;
+    private final int maxQueueSize;
+    private final Map<String, SourceQueue> queues = new LinkedHashMap<>();
+    private final Set<Path> inFlight = ConcurrentHashMap.newKeySet();
+    private int queued;
+    private boolean stopped;
+
+    private static class Task {
+        private final Dve dve;
+        private final Path key;
+        private final Consumer<Dve> work;
+
+        private Task(Dve dve, Path key, Consumer<Dve> work) {
+            this.dve = dve;
+            this.key = key;
+            this.work = work;
+        }
+    }
+
+    private static class SourceQueue {
+        private final ArrayDeque<Task> tasks = new ArrayDeque<>();
+        private final int weight;
+        private int currentWeight;
+
+        private SourceQueue(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * @param threads      the number of worker threads
+     * @param maxQueueSize the maximum number of tasks waiting, over all sources
+     */
+    public MirrorTaskExecutor(int threads, int maxQueueSize) {
+        this(threads, maxQueueSize, "mirror-worker");
+    }
+
+    /**
+     * @param threads      the number of worker threads
+     * @param maxQueueSize the maximum number of tasks waiting, over all sources
+     * @param threadName   the prefix of the names of the worker threads
+     */
+    public MirrorTaskExecutor(int threads, int maxQueueSize, String threadName) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.maxQueueSize = maxQueueSize;
+        // Holds one token per queued task; the number of tokens is bounded by the source queues
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+            r -> new Thread(r, threadName + "-" + threadNumber.incrementAndGet()));
+    }
+
+    /**
+     * Registers a source with its weight. A source with weight 3 gets three tasks run for every task of a source with weight 1, as long as both have tasks
+     * waiting. Sources that are not registered get weight 1.
+     *
+     * @param source the name of the source
+     * @param weight the weight, at least 1
+     */
+    public synchronized void addSource(String source, int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("Weight must be at least 1, got " + weight);
+        }
+        queues.put(source, new SourceQueue(weight));
+    }
+
+    /**
+     * Queues a task for the DVE, unless a task for the same DVE is already queued or running.
+     *
+     * @param source the source the DVE comes from
+     * @param dve    the DVE to process
+     * @param work   the processing to do
+     * @return false if the queue of the source is full or the executor has been shut down and the task was not accepted, true otherwise
+     */
+    public boolean submit(String source, Dve dve, Consumer<Dve> work) {
+        Path key = dve.getPath().toAbsolutePath().normalize();
+        if (!inFlight.add(key)) {
+            log.trace("Already queued or processing: {}", dve);
+            return true;
+        }
+        synchronized (this) {
+            SourceQueue queue = queues.computeIfAbsent(source, s -> new SourceQueue(1));
+            if (stopped || !hasRoom(queue)) {
+                inFlight.remove(key);
+                log.debug("Queue for {} full or shut down, not accepting {} now", source, dve);
+                return false;
+            }
+            queue.tasks.add(new Task(dve, key, work));
+            queued++;
+        }
+        try {
+            executor.execute(this::runNext);
+        }
+        catch (RejectedExecutionException e) {
+            // Shut down after the task was queued; it is among the tasks returned by shutdown(long)
+            log.trace("Shut down while submitting {}", dve);
+        }
+        return true;
+    }
+
+    /*
+     * A source may always fill its share of the queues, as long as there is room at all. Beyond its share, it may only use the room that the other sources do
+     * not need to fill theirs.
+     */
+    private boolean hasRoom(SourceQueue queue) {
+        int share = Math.max(1, maxQueueSize / queues.size());
+        int reserved = 0;
+        if (queue.tasks.size() >= share) {
+            for (SourceQueue other : queues.values()) {
+                if (other != queue) {
+                    reserved += Math.max(0, share - other.tasks.size());
+                }
+            }
+        }
+        return queued + reserved < maxQueueSize;
+    }
+
+    /**
+     * @param dve a DVE
+     * @return whether a task for the DVE is queued or running
+     */
+    public boolean isInFlight(Dve dve) {
+        return inFlight.contains(dve.getPath().toAbsolutePath().normalize());
+    }
+
+    private void runNext() {
+        Task task = next();
+        if (task == null) {
+            return;
+        }
+        try {
+            task.work.accept(task.dve);
+        }
+        catch (RuntimeException e) {
+            log.error("Unexpected error while processing {}", task.dve, e);
+        }
+        finally {
+            inFlight.remove(task.key);
+        }
+    }
+
+    /*
+     * Smooth weighted round-robin: every non-empty queue gains its weight, the queue with the highest current weight is served and pays back the total weight
+     * of the non-empty queues. This interleaves the sources instead of serving one in bursts.
+     */
+    private synchronized Task next() {
+        SourceQueue selected = null;
+        int totalWeight = 0;
+        for (SourceQueue queue : queues.values()) {
+            if (queue.tasks.isEmpty()) {
+                continue;
+            }
+            queue.currentWeight += queue.weight;
+            totalWeight += queue.weight;
+            if (selected == null || queue.currentWeight > selected.currentWeight) {
+                selected = queue;
+            }
+        }
+        if (selected == null) {
+            return null;
+        }
+        selected.currentWeight -= totalWeight;
+        if (selected.tasks.size() == 1) {
+            // Do not carry credit or debt into the next burst of this source
+            selected.currentWeight = 0;
+        }
+        queued--;
+        return selected.tasks.poll();
+    }
+
+    public synchronized int getQueueDepth() {
+        return queued;
+    }
+
+    public synchronized int getQueueDepth(String source) {
+        SourceQueue queue = queues.get(source);
+        return queue == null ? 0 : queue.tasks.size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Stops accepting tasks, takes the tasks that have not started yet out of the queues and waits for the running tasks to finish. Running tasks that have not
+     * finished before the timeout are interrupted.
+     *
+     * @param timeout the maximum time in milliseconds to wait for the running tasks
+     * @return the DVEs of the tasks that were not started, per source in queue order
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public List<Dve> shutdown(long timeout) throws InterruptedException {
+        List<Dve> notStarted = new ArrayList<>();
+        synchronized (this) {
+            stopped = true;
+            for (SourceQueue queue : queues.values()) {
+                for (Task task : queue.tasks) {
+                    notStarted.add(task.dve);
+                    inFlight.remove(task.key);
+                }
+                queue.tasks.clear();
+            }
+            queued = 0;
+        }
+        executor.shutdown();
+        if (!executor.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+            log.warn("{} tasks still running after {} ms, interrupting them", executor.getActiveCount(), timeout);
+            executor.shutdownNow();
+        }
+        return notStarted;
+    }
+}
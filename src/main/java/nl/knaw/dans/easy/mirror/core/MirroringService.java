@@ -15,8 +15,12 @@
  */
 package nl.knaw.dans.easy.mirror.core;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
 import io.dropwizard.lifecycle.Managed;
+import nl.knaw.dans.easy.mirror.core.config.DetectionMode;
 import nl.knaw.dans.easy.mirror.core.config.Inbox;
+import nl.knaw.dans.easy.mirror.core.config.Readiness;
 import org.apache.commons.io.monitor.FileAlterationListenerAdaptor;
 import org.apache.commons.io.monitor.FileAlterationMonitor;
 import org.apache.commons.io.monitor.FileAlterationObserver;
@@ -25,18 +29,53 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Stream;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class MirroringService implements Managed {
     private static final Logger log = LoggerFactory.getLogger(MirroringService.class);
     private final int pollingInterval;
+    private final long drainTimeout;
     private final List<Inbox> inboxes;
+    private final Path failedBox;
+    private final MirrorStore mirrorStore;
     private final MirrorTask mirrorTask;
+    private final MirrorTaskExecutor executor;
+    private final DveValidator validator;
+    private final MirrorTaskExecutor validationExecutor;
+    private final ClaimManager claims;
+    private final Map<Inbox, InboxBacklog> backlogs = new HashMap<>();
+    private final Map<Inbox, InboxStats> stats = new HashMap<>();
+    private final ReadinessTracker readiness;
+    private final RetryPolicy retryPolicy;
+    private final DveLatencyTracker latencyTracker;
+    private final Map<Path, Integer> failedAttempts = new ConcurrentHashMap<>();
+    // DVEs from the moment they are dispatched for validation until they are queued for a worker, rejected or found gone
+    private final Set<Path> validating = ConcurrentHashMap.newKeySet();
+    private final Set<Inbox> paused = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean holding = new AtomicBoolean();
+    private final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "mirror-retry");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private InboxWatcher watcher;
+    private FileAlterationMonitor monitor;
 
     private class EventHandler extends FileAlterationListenerAdaptor {
         private final Inbox inbox;
@@ -48,30 +87,115 @@ public class MirroringService implements Managed {
         @Override
         public void onStart(FileAlterationObserver observer) {
             log.trace("onStart called");
-            processAllFromInbox(inbox);
+            drainBacklog(inbox);
         }
 
         @Override
         public void onFileCreate(File file) {
             log.trace("onFileCreate: {}", file);
-            executeMirrorTask(file.toPath());
+            submit(inbox, file.toPath());
         }
     }
 
+    /**
+     * @param validator          validates DVEs before they are moved into the store, or null to not validate
+     * @param validationExecutor the pool on which DVEs are validated, or null to not validate
+     * @param claims             claims DVEs for this node when the inboxes are shared with other nodes, or null if they are not shared
+     * @param drainTimeout       the maximum time in milliseconds that stopping waits for DVEs that are being moved into the store
+     * @param latencyTracker     records how long the stages took for each processed DVE
+     */
     public MirroringService(int pollingInterval, List<Inbox> inboxes,
-        Path failedBox, Path mirrorStore) {
+        Path failedBox, MirrorStore mirrorStore, MirrorTaskExecutor executor, Readiness readiness, RetryPolicy retryPolicy,
+        DveValidator validator, MirrorTaskExecutor validationExecutor, ClaimManager claims, long drainTimeout, DveLatencyTracker latencyTracker,
+        MetricRegistry metrics) {
         this.pollingInterval = pollingInterval;
+        this.drainTimeout = drainTimeout;
         this.inboxes = inboxes;
-        this.mirrorTask =new MirrorTask(failedBox, new MirrorStore(mirrorStore));
+        this.failedBox = failedBox;
+        this.mirrorStore = mirrorStore;
+        this.retryPolicy = retryPolicy;
+        this.latencyTracker = latencyTracker;
+        this.mirrorTask = new MirrorTask(failedBox, mirrorStore, retryPolicy, metrics);
+        this.executor = executor;
+        this.validator = validator;
+        this.validationExecutor = validator == null ? null : validationExecutor;
+        this.claims = claims;
+        this.readiness = new ReadinessTracker(readiness.getQuietPeriod().toMilliseconds(), readiness.getCheckInterval().toMilliseconds(),
+            this::dispatch, (inbox, dve) -> stats.get(inbox).done(dve.getPath()));
+        for (Inbox inbox : inboxes) {
+            String name = inbox.getPath().getFileName().toString();
+            InboxStats inboxStats = new InboxStats(metrics.meter(MetricRegistry.name(MirroringService.class, "inbox", name, "processed")),
+                metrics.meter(MetricRegistry.name(MirroringService.class, "inbox", name, "failed")));
+            stats.put(inbox, inboxStats);
+            backlogs.put(inbox, new InboxBacklog(inbox, inboxStats));
+            executor.addSource(inbox.getPath().toString(), inbox.getWeight());
+            if (this.validationExecutor != null) {
+                this.validationExecutor.addSource(inbox.getPath().toString(), inbox.getWeight());
+            }
+            metrics.register(MetricRegistry.name(MirroringService.class, "inbox", name, "pending"), (Gauge<Integer>) inboxStats::getPendingCount);
+            metrics.register(MetricRegistry.name(MirroringService.class, "inbox", name, "oldest-pending-age-ms"), (Gauge<Long>) inboxStats::getOldestPendingAge);
+            metrics.register(MetricRegistry.name(MirroringService.class, "inbox", name, "queue-depth"),
+                (Gauge<Integer>) () -> executor.getQueueDepth(inbox.getPath().toString()));
+            metrics.register(MetricRegistry.name(MirroringService.class, "inbox", name, "paused"), (Gauge<Boolean>) () -> paused.contains(inbox));
+            // Entries whose attributes could not be read by the last scans; the log has the first failure of each
+            metrics.register(MetricRegistry.name(MirroringService.class, "inbox", name, "skipped-entries"),
+                (Gauge<Integer>) () -> backlogs.get(inbox).getSkipped().size());
+        }
+        metrics.register(MetricRegistry.name(MirroringService.class, "queue-depth"), (Gauge<Integer>) executor::getQueueDepth);
+        metrics.register(MetricRegistry.name(MirroringService.class, "active-workers"), (Gauge<Integer>) executor::getActiveCount);
+        metrics.register(MetricRegistry.name(MirroringService.class, "not-ready"), (Gauge<Integer>) this.readiness::getTrackedCount);
+        metrics.register(MetricRegistry.name(MirroringService.class, "awaiting-retry"), (Gauge<Integer>) failedAttempts::size);
+        if (this.validationExecutor != null) {
+            metrics.register(MetricRegistry.name(MirroringService.class, "validation-queue-depth"), (Gauge<Integer>) this.validationExecutor::getQueueDepth);
+        }
     }
 
     @Override
     public void start() {
         log.info("Starting Mirroring Service");
 
+        try {
+            log.debug("Loading index of EASY mirror store");
+            mirrorStore.open();
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Could not load index of EASY mirror store", e);
+        }
+
+        if (claims != null) {
+            try {
+                // After opening the store, so that the moves interrupted by a crash are finished before their DVEs are returned to the inbox
+                claims.start();
+            }
+            catch (IOException e) {
+                throw new IllegalStateException("Could not create claim directories", e);
+            }
+            // The other nodes store DVEs too; without this, they would only be known to this node when it restarts
+            retryScheduler.scheduleWithFixedDelay(this::mergeOtherNodes, claims.getHeartbeatInterval(), claims.getHeartbeatInterval(), TimeUnit.MILLISECONDS);
+        }
+
+        for (Inbox inbox : inboxes) {
+            try {
+                backlogs.get(inbox).restore();
+            }
+            catch (IOException e) {
+                log.warn("Could not restore pending DVEs of {}, scanning it instead", inbox.getPath(), e);
+            }
+        }
+
         log.debug("Creating monitor");
-        FileAlterationMonitor monitor = new FileAlterationMonitor(pollingInterval);
+        monitor = new FileAlterationMonitor(pollingInterval);
         for (Inbox inbox : inboxes) {
+            if (useWatchService(inbox)) {
+                try {
+                    getWatcher().register(inbox);
+                    log.info("Starting watching {}", inbox.getPath());
+                    continue;
+                }
+                catch (IOException e) {
+                    log.warn("Could not watch {}, falling back to polling", inbox.getPath(), e);
+                }
+            }
             log.info("Starting monitoring {}", inbox.getPath());
             FileAlterationObserver observer = new FileAlterationObserver(inbox.getPath().toFile(), new DveFileFilter(inbox.getPath()));
             observer.addListener(new EventHandler(inbox));
@@ -81,6 +205,11 @@ public class MirroringService implements Managed {
         }
 
         try {
+            readiness.start();
+            if (watcher != null) {
+                log.debug("Starting watcher");
+                watcher.start();
+            }
             log.debug("Starting monitor");
             monitor.start();
             log.debug("Monitor started");
@@ -90,43 +219,423 @@ public class MirroringService implements Managed {
         }
     }
 
-    private void processAllFromInbox(Inbox inbox) {
+    /**
+     * Stops in order: first detection of new DVEs, then the retries, then the workers. DVEs that are being moved into the store are given drainTimeout to
+     * finish. The DVEs that were accepted but not started are saved per inbox, together with the rest of its backlog, so that the next start resumes with them.
+     */
+    @Override
+    public void stop() {
+        log.info("Stopping Mirroring Service");
+        if (monitor != null) {
+            try {
+                monitor.stop(0);
+            }
+            catch (Exception e) {
+                log.warn("Could not stop monitor", e);
+            }
+        }
+        if (watcher != null) {
+            try {
+                watcher.stop();
+            }
+            catch (IOException e) {
+                log.warn("Could not close watcher", e);
+            }
+        }
+        readiness.stop();
+        retryScheduler.shutdownNow();
+        List<Path> notProcessed = new ArrayList<>(failedAttempts.keySet());
+        long deadline = System.currentTimeMillis() + drainTimeout;
         try {
-            DveFileFilter fileFilter = new DveFileFilter(inbox.getPath());
-            try (Stream<Path> files = Files.list(inbox.getPath())) {
-                files.filter(f -> fileFilter.accept(f.toFile()))
-                    .forEach(this::executeMirrorTask);
+            // Validation first, so that DVEs that pass it during the drain can still be moved
+            if (validationExecutor != null) {
+                validationExecutor.shutdown(Math.max(0, deadline - System.currentTimeMillis())).forEach(dve -> notProcessed.add(dve.getPath()));
             }
+            log.info("Waiting at most {} ms for {} DVEs being moved into the store", Math.max(0, deadline - System.currentTimeMillis()), executor.getActiveCount());
+            List<Path> notStarted = new ArrayList<>();
+            executor.shutdown(Math.max(0, deadline - System.currentTimeMillis())).forEach(dve -> notStarted.add(dve.getPath()));
+            notStarted.addAll(notProcessed);
+            saveBacklogs(notStarted);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while draining, the inboxes will be scanned on the next start");
+        }
+        if (claims != null) {
+            claims.stop();
+        }
+        try {
+            mirrorStore.checkpoint();
         }
         catch (IOException e) {
-            throw new IllegalStateException("Could not read DVEs from inbox", e);
+            log.warn("Could not write checkpoint of EASY mirror store index", e);
+        }
+        try {
+            mirrorStore.close();
+        }
+        catch (IOException e) {
+            log.warn("Could not close EASY mirror store", e);
         }
     }
 
-    private void executeMirrorTask(Path dve) {
-        log.info("Executing " + dve.getFileName());
+    private void mergeOtherNodes() {
         try {
-            Optional<Path> optXmlFile = getAssociatedXmlFile(dve);
-            if (optXmlFile.isPresent()) {
-                log.debug("Removing associated XML file {}", optXmlFile.get());
-                Files.deleteIfExists(optXmlFile.get());
+            mirrorStore.mergeOtherNodes();
+        }
+        catch (IOException | RuntimeException e) {
+            log.warn("Could not read the indexes of the other nodes", e);
+        }
+    }
+
+    private void saveBacklogs(List<Path> notProcessed) {
+        for (Inbox inbox : inboxes) {
+            List<Path> fromInbox = new ArrayList<>();
+            for (Path path : notProcessed) {
+                Path inboxPath = claims == null ? path : claims.getInboxPath(path);
+                if (inboxPath.toAbsolutePath().getParent().equals(inbox.getPath().toAbsolutePath())) {
+                    fromInbox.add(inboxPath);
+                }
+            }
+            try {
+                backlogs.get(inbox).save(fromInbox);
+            }
+            catch (IOException e) {
+                log.warn("Could not save pending DVEs of {}, it will be scanned on the next start", inbox.getPath(), e);
+            }
+        }
+    }
+
+    /**
+     * Stops handing over DVEs from the inbox to the workers. DVEs already accepted are still processed, and new DVEs are still detected, but they wait in the
+     * backlog until the inbox is resumed.
+     *
+     * @param inbox the inbox to pause
+     * @return false if the inbox was already paused
+     */
+    public boolean pause(Inbox inbox) {
+        boolean changed = paused.add(inbox);
+        if (changed) {
+            log.info("Paused intake from {}", inbox.getPath());
+        }
+        return changed;
+    }
+
+    /**
+     * Resumes handing over DVEs from a paused inbox.
+     *
+     * @param inbox the inbox to resume
+     * @return false if the inbox was not paused
+     */
+    public boolean resume(Inbox inbox) {
+        boolean changed = paused.remove(inbox);
+        if (changed) {
+            log.info("Resumed intake from {}", inbox.getPath());
+            backlogs.get(inbox).requestRescan();
+            if (watcher != null) {
+                watcher.requestRescan(inbox);
+            }
+        }
+        return changed;
+    }
+
+    public boolean isPaused(Inbox inbox) {
+        return paused.contains(inbox);
+    }
+
+    /**
+     * Moves the DVEs in the failedBox back into an inbox, where they are processed like newly arrived DVEs.
+     *
+     * @param inbox the inbox to move the DVEs to
+     * @return the number of DVEs moved
+     * @throws IOException if the failedBox could not be read
+     */
+    public int reingestFailed(Inbox inbox) throws IOException {
+        List<Path> failed = new ArrayList<>();
+        try (DirectoryStream<Path> dves = Files.newDirectoryStream(failedBox, "*.zip")) {
+            dves.forEach(failed::add);
+        }
+        int moved = 0;
+        for (Path dve : failed) {
+            Path target = inbox.getPath().resolve(dve.getFileName());
+            if (Files.exists(target)) {
+                log.warn("{} already in inbox {}, leaving it in failedBox", dve.getFileName(), inbox.getPath());
+                continue;
+            }
+            try {
+                try {
+                    Files.move(dve, target, StandardCopyOption.ATOMIC_MOVE);
+                }
+                catch (AtomicMoveNotSupportedException e) {
+                    // Copied; readiness checking holds the DVE back until the copy is complete
+                    Files.move(dve, target);
+                }
+            }
+            catch (IOException e) {
+                log.error("Could not move {} from failedBox to {}", dve.getFileName(), inbox.getPath(), e);
+                continue;
+            }
+            Files.deleteIfExists(failedBox.resolve(MirrorTask.reasonFileName(dve)));
+            moved++;
+            submit(inbox, target);
+        }
+        log.info("Re-ingested {} of {} DVEs from failedBox into {}", moved, failed.size(), inbox.getPath());
+        return moved;
+    }
+
+    public List<Inbox> getInboxes() {
+        return inboxes;
+    }
+
+    public MirrorStore getMirrorStore() {
+        return mirrorStore;
+    }
+
+    public DveLatencyTracker getLatencyTracker() {
+        return latencyTracker;
+    }
+
+    /**
+     * @param inbox one of the inboxes of this service
+     * @return the live counters of the inbox
+     */
+    public InboxStats getInboxStats(Inbox inbox) {
+        return stats.get(inbox);
+    }
+
+    private boolean useWatchService(Inbox inbox) {
+        if (inbox.getDetectionMode() == DetectionMode.AUTO) {
+            return InboxWatcher.supportsEvents(inbox.getPath());
+        }
+        return inbox.getDetectionMode() == DetectionMode.WATCH;
+    }
+
+    private InboxWatcher getWatcher() throws IOException {
+        if (watcher == null) {
+            watcher = new InboxWatcher(this::submit, inbox -> backlogs.get(inbox).requestRescan(), this::drainBacklog, pollingInterval);
+        }
+        return watcher;
+    }
+
+    private boolean drainBacklog(Inbox inbox) {
+        if (paused.contains(inbox) || isStoreFull()) {
+            // Do not even scan; the scan is requested again until the inbox is resumed and the store has room
+            return false;
+        }
+        return backlogs.get(inbox).drain(path -> readiness.offer(inbox, new Dve(path)));
+    }
+
+    private void submit(Inbox inbox, Path path) {
+        stats.get(inbox).seen(path, System.currentTimeMillis());
+        if (!readiness.offer(inbox, new Dve(path))) {
+            // Picked up again by the next scan of the inbox, which is done when its current backlog has been drained
+            log.debug("Worker queue full, postponing {}", path.getFileName());
+            backlogs.get(inbox).requestRescan();
+            if (watcher != null) {
+                watcher.requestRescan(inbox);
+            }
+        }
+    }
+
+    private boolean dispatch(Inbox inbox, Dve dve) {
+        if (paused.contains(inbox) || isStoreFull()) {
+            // Not accepted, so it stays in the readiness tracker or the backlog until the inbox is resumed and the store has room
+            return false;
+        }
+        if (failedAttempts.containsKey(dve.getPath())) {
+            log.trace("Waiting for retry: {}", dve);
+            return true;
+        }
+        dve.mark(Dve.Stage.READY);
+        if (validationExecutor != null) {
+            // Marked before it is validated, so that a rescan meanwhile does not validate and queue it a second time
+            if (!validating.add(dve.getPath())) {
+                log.trace("Already being validated: {}", dve);
+                return true;
+            }
+            if (!executor.isInFlight(dve)) {
+                // Validation runs on its own pool, so that it overlaps with moving other DVEs into the store
+                boolean accepted = validationExecutor.submit(inbox.getPath().toString(), dve, d -> validate(inbox, d));
+                if (!accepted) {
+                    validating.remove(dve.getPath());
+                }
+                return accepted;
+            }
+            validating.remove(dve.getPath());
+        }
+        return executor.submit(inbox.getPath().toString(), dve, d -> executeMirrorTask(inbox, d));
+    }
+
+    /*
+     * Based on the free space cached by the store, so this is cheap enough to call for every DVE.
+     */
+    private boolean isStoreFull() {
+        boolean full = mirrorStore.isFull();
+        if (holding.getAndSet(full) != full) {
+            if (full) {
+                log.warn("EASY mirror store full, holding DVEs in the inboxes");
             }
             else {
-                log.warn("Associated XML file was not found");
+                log.info("EASY mirror store has room again, resuming intake");
+            }
+        }
+        return full;
+    }
+
+    private void validate(Inbox inbox, Dve detected) {
+        try {
+            validateClaimed(inbox, detected);
+        }
+        finally {
+            // By now the DVE is queued for a worker or waiting for a retry, both of which dispatch checks, or it is done
+            validating.remove(detected.getPath());
+        }
+    }
+
+    private void validateClaimed(Inbox inbox, Dve detected) {
+        if (Files.notExists(detected.getPath())) {
+            log.debug("{} no longer in inbox, already processed", detected);
+            stats.get(inbox).done(detected.getPath());
+            return;
+        }
+        Optional<Dve> claimed = claim(inbox, detected);
+        if (!claimed.isPresent()) {
+            stats.get(inbox).done(detected.getPath());
+            return;
+        }
+        Dve dve = claimed.get();
+        Optional<String> problem = validator.validate(dve);
+        dve.mark(Dve.Stage.VALIDATED);
+        if (problem.isPresent()) {
+            try {
+                MirrorTask.Outcome outcome = mirrorTask.reject(dve, problem.get());
+                stats.get(inbox).recordOutcome(outcome);
+                latencyTracker.complete(dve, outcome);
+            }
+            finally {
+                stats.get(inbox).done(detected.getPath());
+            }
+        }
+        else if (!executor.submit(inbox.getPath().toString(), dve, d -> executeMirrorTask(inbox, d))) {
+            log.debug("Worker queue full, {} validated but waiting", dve);
+            // No attempt made yet; recorded so that dispatch leaves the DVE to the retry
+            failedAttempts.put(dve.getPath(), 0);
+            scheduleRetry(inbox, dve, retryPolicy.getBackoff(1));
+        }
+    }
+
+    private void executeMirrorTask(Inbox inbox, Dve queued) {
+        queued.mark(Dve.Stage.STARTED);
+        Optional<Dve> claimed = claim(inbox, queued);
+        if (!claimed.isPresent()) {
+            stats.get(inbox).done(queued.getPath());
+            return;
+        }
+        Dve dve = claimed.get();
+        int attempt = failedAttempts.getOrDefault(dve.getPath(), 0) + 1;
+        boolean retry = false;
+        try {
+            if (claims != null && !claims.holdsLease(inbox)) {
+                log.warn("Lease on {} not renewed in time, returning {} to the inbox for another node", inbox.getPath(), dve);
+                release(dve);
+                return;
+            }
+            Optional<MirrorTask.Outcome> outcome = executeMirrorTask(dve, attempt);
+            retry = outcome.filter(o -> o == MirrorTask.Outcome.RETRY).isPresent();
+            if (retry) {
+                failedAttempts.put(dve.getPath(), attempt);
+                scheduleRetry(inbox, dve, retryPolicy.getBackoff(attempt));
+            }
+            else if (outcome.filter(o -> o == MirrorTask.Outcome.HELD).isPresent()) {
+                // Still in the inbox, or returned to it if claimed; found again by the scan that is done when the store has room
+                release(dve);
+                backlogs.get(inbox).requestRescan();
+                if (watcher != null) {
+                    watcher.requestRescan(inbox);
+                }
+            }
+            else if (outcome.filter(o -> o == MirrorTask.Outcome.LOST).isPresent()) {
+                log.debug("{} taken over by another node", dve);
+            }
+            else if (outcome.isPresent()) {
+                stats.get(inbox).recordOutcome(outcome.get());
+                latencyTracker.complete(dve, outcome.get());
+            }
+        }
+        finally {
+            if (!retry) {
+                failedAttempts.remove(dve.getPath());
+                stats.get(inbox).done(claims == null ? dve.getPath() : claims.getInboxPath(dve.getPath()));
             }
-            mirrorTask.move(dve);
+        }
+    }
+
+    /*
+     * A DVE that is retried, or that waits for a worker after validation, stays claimed by this node, so the DVE is claimed only by the first step that
+     * processes it.
+     */
+    private Optional<Dve> claim(Inbox inbox, Dve dve) {
+        if (claims == null || claims.isClaimed(dve)) {
+            return Optional.of(dve);
+        }
+        try {
+            Optional<Dve> claimed = claims.claim(inbox, dve);
+            if (!claimed.isPresent()) {
+                log.debug("{} claimed by another node", dve);
+            }
+            return claimed;
         }
         catch (IOException e) {
-            log.error("Could not move DVE to mirror store", e);
+            log.error("Could not claim {}, leaving it in the inbox", dve, e);
+            return Optional.empty();
         }
     }
 
-    private Optional<Path> getAssociatedXmlFile(Path path) {
+    private void release(Dve dve) {
+        if (claims != null) {
+            try {
+                claims.release(dve);
+            }
+            catch (IOException e) {
+                log.error("Could not return {} to the inbox; it is returned when this node restarts", dve, e);
+            }
+        }
+    }
+
+    // The wait is on the scheduler, not on a worker thread
+    private void scheduleRetry(Inbox inbox, Dve dve, long delay) {
+        log.debug("Retrying {} in {} ms", dve, delay);
+        try {
+            retryScheduler.schedule(() -> {
+                if (!executor.submit(inbox.getPath().toString(), dve, d -> executeMirrorTask(inbox, d))) {
+                    scheduleRetry(inbox, dve, retryPolicy.getBackoff(1));
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e) {
+            log.debug("Stopping, not retrying {}", dve);
+        }
+    }
+
+    private Optional<MirrorTask.Outcome> executeMirrorTask(Dve dve, int attempt) {
+        if (Files.notExists(dve.getPath())) {
+            log.debug("{} no longer in inbox, already processed", dve);
+            return Optional.empty();
+        }
+        log.info("Executing " + dve);
         try {
-            ExportedDatasetVersionName dveName = new ExportedDatasetVersionName(path.getFileName().toString());
-            String xml = dveName.getSpaceName() + "-datacite.v" + dveName.getMajorVersion() + "." + dveName.getMinorVersion() + ".xml";
-            return Optional.of(path.getParent().resolve(Paths.get(xml)));
-        } catch (IllegalArgumentException e) {
+            Optional<Path> optXmlFile = dve.getXmlFile();
+            if (optXmlFile.isPresent()) {
+                log.debug("Removing associated XML file {}", optXmlFile.get());
+                Files.deleteIfExists(optXmlFile.get());
+            }
+            else if (attempt == 1) {
+                log.warn("Associated XML file was not found");
+            }
+            dve.mark(Dve.Stage.XML_DELETED);
+            return Optional.of(mirrorTask.move(dve, attempt));
+        }
+        catch (IOException e) {
+            log.error("Could not move DVE to mirror store", e);
             return Optional.empty();
         }
     }
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only journal of moves into the EASY mirror store. The start of a move is written and forced to disk before anything is moved, and its completion is
+ * written when the DVE has been stored and indexed. After a crash, the moves that were started but not completed can be read back, so that they can be
+ * finished or rolled back.
+ */
+public class MoveJournal {
+    private static final Logger log = LoggerFactory.getLogger(MoveJournal.class);
+    private static final String BEGIN = "BEGIN";
+    private static final String COMMIT = "COMMIT";
+    private static final long TRUNCATE_SIZE = 1 << 20;
+
+    private final Path file;
+    private final long truncateSize;
+    private final Map<Long, String> started = new HashMap<>();
+    // The start records of the moves that failed without completing; written back when the journal is truncated
+    private final Map<Long, String> abandoned = new LinkedHashMap<>();
+    private FileChannel channel;
+    private long nextId = 1;
+    private int openMoves;
+
+    public static final class Move {
+        private final long id;
+        private final Path source;
+        private final Path target;
+
+        private Move(long id, Path source, Path target) {
+            this.id = id;
+            this.source = source;
+            this.target = target;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public Path getSource() {
+            return source;
+        }
+
+        public Path getTarget() {
+            return target;
+        }
+    }
+
+    public MoveJournal(Path file) {
+        this(file, TRUNCATE_SIZE);
+    }
+
+    /**
+     * @param truncateSize the size in bytes above which the journal is emptied when no moves are in progress
+     */
+    MoveJournal(Path file, long truncateSize) {
+        this.file = file;
+        this.truncateSize = truncateSize;
+    }
+
+    /**
+     * Reads the moves that were started but not completed. They stay in the journal until the caller has finished or rolled them back and calls
+     * {@link #recovered()}, so that a failure during the recovery leaves them to be recovered on the next open.
+     *
+     * @return the incomplete moves, in the order in which they were started
+     * @throws IOException if the journal could not be read or created
+     */
+    public synchronized List<Move> open() throws IOException {
+        Map<Long, Move> incomplete = new LinkedHashMap<>();
+        long lastId = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                try {
+                    if (fields.length == 4 && BEGIN.equals(fields[0])) {
+                        long id = Long.parseLong(fields[1]);
+                        lastId = Math.max(lastId, id);
+                        incomplete.put(id, new Move(id, Paths.get(fields[2]), Paths.get(fields[3])));
+                    }
+                    else if (fields.length == 2 && COMMIT.equals(fields[0])) {
+                        incomplete.remove(Long.parseLong(fields[1]));
+                    }
+                    else {
+                        log.warn("Ignoring invalid line in move journal {}: {}", file, line);
+                    }
+                }
+                catch (NumberFormatException e) {
+                    log.warn("Ignoring invalid line in move journal {}: {}", file, line);
+                }
+            }
+        }
+        catch (NoSuchFileException e) {
+            // No moves yet
+        }
+        // Appended to, so the ids continue after those of the moves that are still in the journal
+        nextId = lastId + 1;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        return new ArrayList<>(incomplete.values());
+    }
+
+    /**
+     * Empties the journal, after all moves returned by {@link #open()} have been finished or rolled back.
+     *
+     * @throws IOException if the journal could not be emptied
+     */
+    public synchronized void recovered() throws IOException {
+        checkOpen();
+        channel.truncate(0);
+        channel.force(true);
+    }
+
+    /**
+     * Records the start of a move. The record is on disk when this method returns.
+     *
+     * @param source the file being moved
+     * @param target the final location of the file
+     * @return the id of the move, to pass to {@link #commit(long)}
+     * @throws IOException if the record could not be written
+     */
+    public synchronized long begin(Path source, Path target) throws IOException {
+        checkOpen();
+        long id = nextId++;
+        String record = BEGIN + "\t" + id + "\t" + source.toAbsolutePath() + "\t" + target.toAbsolutePath();
+        append(record);
+        channel.force(false);
+        openMoves++;
+        started.put(id, record);
+        return id;
+    }
+
+    /**
+     * Records the completion of a move. This is not forced to disk: finishing an already completed move again is harmless.
+     *
+     * @param id the id of the move
+     * @throws IOException if the record could not be written
+     */
+    public synchronized void commit(long id) throws IOException {
+        checkOpen();
+        append(COMMIT + "\t" + id);
+        started.remove(id);
+        if (--openMoves == 0 && channel.size() > truncateSize) {
+            channel.truncate(0);
+            for (String record : abandoned.values()) {
+                append(record);
+            }
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Stops tracking a move that failed without completing. Its start stays in the journal, so that it is finished or rolled back on the next start.
+     *
+     * @param id the id of the move
+     */
+    public synchronized void abandon(long id) {
+        String record = started.remove(id);
+        if (record != null) {
+            abandoned.put(id, record);
+        }
+        openMoves--;
+    }
+
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private void checkOpen() {
+        if (channel == null) {
+            throw new IllegalStateException("Move journal " + file + " is not open");
+        }
+    }
+
+    private void append(String record) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap((record + "\n").getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import nl.knaw.dans.easy.mirror.core.config.Inbox;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+
+/**
+ * Holds back DVEs that may still be being written. A DVE is ready when its size and modification time have not changed for the quiet period, or when its
+ * companion DataCite XML file exists. DVEs that are ready when they are offered are handed over immediately; the others are checked periodically on a separate
+ * thread, so that DVEs that are still being written never delay those that are ready.
+ */
+public class ReadinessTracker {
+    private static final Logger log = LoggerFactory.getLogger(ReadinessTracker.class);
+
+    private final long quietPeriod;
+    private final long checkInterval;
+    private final BiPredicate<Inbox, Dve> onReady;
+    private final BiConsumer<Inbox, Dve> onGone;
+    private final Map<Path, Candidate> candidates = new ConcurrentHashMap<>();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param quietPeriod   the period in milliseconds during which size and modification time must not change
+     * @param checkInterval the interval in milliseconds between checks of the DVEs that are not ready yet
+     * @param onReady       hands over a ready DVE; returns false if it cannot be accepted now, in which case it is offered again on the next check
+     * @param onGone        called for a tracked DVE that has disappeared from the inbox
+     */
+    public ReadinessTracker(long quietPeriod, long checkInterval, BiPredicate<Inbox, Dve> onReady, BiConsumer<Inbox, Dve> onGone) {
+        this.quietPeriod = quietPeriod;
+        this.checkInterval = checkInterval;
+        this.onReady = onReady;
+        this.onGone = onGone;
+    }
+
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "readiness-checker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::checkCandidates, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Offers a detected DVE. If it is ready, it is handed over immediately, otherwise it is tracked until it is.
+     *
+     * @param inbox the inbox of the DVE
+     * @param dve   the DVE
+     * @return false if the DVE is ready but could not be handed over, true otherwise
+     */
+    public boolean offer(Inbox inbox, Dve dve) {
+        if (candidates.containsKey(dve.getPath())) {
+            return true;
+        }
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(dve.getPath(), BasicFileAttributes.class);
+        }
+        catch (NoSuchFileException e) {
+            onGone.accept(inbox, dve);
+            return true;
+        }
+        catch (IOException e) {
+            log.warn("Could not read attributes of {}, checking again later", dve, e);
+            candidates.putIfAbsent(dve.getPath(), new Candidate(inbox, dve, -1, -1));
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        dve.setArrivedAt(attrs.lastModifiedTime().toMillis());
+        if (now - attrs.lastModifiedTime().toMillis() >= quietPeriod || hasCompanion(dve)) {
+            return onReady.test(inbox, dve);
+        }
+        log.debug("{} may still be being written, waiting until it is ready", dve);
+        candidates.putIfAbsent(dve.getPath(), new Candidate(inbox, dve, attrs.size(), attrs.lastModifiedTime().toMillis()));
+        return true;
+    }
+
+    public int getTrackedCount() {
+        return candidates.size();
+    }
+
+    void checkCandidates() {
+        long now = System.currentTimeMillis();
+        Iterator<Candidate> it = candidates.values().iterator();
+        while (it.hasNext()) {
+            Candidate candidate = it.next();
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(candidate.dve.getPath(), BasicFileAttributes.class);
+                if (attrs.size() != candidate.size || attrs.lastModifiedTime().toMillis() != candidate.lastModified) {
+                    candidate.size = attrs.size();
+                    candidate.lastModified = attrs.lastModifiedTime().toMillis();
+                    candidate.stableSince = now;
+                }
+                else if ((now - candidate.stableSince >= quietPeriod || hasCompanion(candidate.dve)) && onReady.test(candidate.inbox, candidate.dve)) {
+                    log.debug("{} is ready", candidate.dve);
+                    it.remove();
+                }
+            }
+            catch (NoSuchFileException e) {
+                it.remove();
+                onGone.accept(candidate.inbox, candidate.dve);
+            }
+            catch (IOException | RuntimeException e) {
+                log.warn("Could not check readiness of {}", candidate.dve, e);
+            }
+        }
+    }
+
+    private boolean hasCompanion(Dve dve) {
+        return dve.getXmlFile().map(Files::exists).orElse(false);
+    }
+
+    private static class Candidate {
+        private final Inbox inbox;
+        private final Dve dve;
+        private long size;
+        private long lastModified;
+        private long stableSince;
+
+        private Candidate(Inbox inbox, Dve dve, long size, long lastModified) {
+            this.inbox = inbox;
+            this.dve = dve;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.stableSince = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import java.io.IOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.ZipException;
+
+/**
+ * Decides whether a failed attempt to process a DVE is retried and how long to wait before the next attempt. Only I/O errors are retried, except those that
+ * will not go away by waiting, such as a missing file, a file that already exists or a permission problem. Other I/O errors, such as stale NFS file handles,
+ * busy devices and timeouts, are assumed to be transient.
+ */
+public class RetryPolicy {
+    private final int maxAttempts;
+    private final long initialBackoff;
+    private final long maxBackoff;
+
+    /**
+     * @param maxAttempts    the maximum number of attempts, including the first one
+     * @param initialBackoff the wait in milliseconds before the second attempt
+     * @param maxBackoff     the maximum wait in milliseconds
+     */
+    public RetryPolicy(int maxAttempts, long initialBackoff, long maxBackoff) {
+        this.maxAttempts = maxAttempts;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+    }
+
+    public static RetryPolicy noRetries() {
+        return new RetryPolicy(1, 0, 0);
+    }
+
+    public boolean shouldRetry(int attempt, Exception e) {
+        return attempt < maxAttempts && isTransient(e);
+    }
+
+    /**
+     * Exponential backoff with jitter: the wait is at least half of the exponential delay and at most the full delay, so that DVEs that failed together do not
+     * all retry at the same moment.
+     *
+     * @param attempt the attempt that failed, starting at 1
+     * @return the wait in milliseconds before the next attempt
+     */
+    public long getBackoff(int attempt) {
+        long delay = initialBackoff;
+        for (int i = 1; i < attempt && delay < maxBackoff; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, maxBackoff);
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    static boolean isTransient(Exception e) {
+        if (!(e instanceof IOException)) {
+            return false;
+        }
+        return !(e instanceof NoSuchFileException
+            || e instanceof FileAlreadyExistsException
+            || e instanceof AccessDeniedException
+            || e instanceof NotDirectoryException
+            || e instanceof DirectoryNotEmptyException
+            || e instanceof ZipException);
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+/**
+ * The number and total size of the DVEs in one container (shard) of the EASY mirror store.
+ */
+public final class ShardStats {
+    private final String shard;
+    private final long count;
+    private final long totalSize;
+
+    public ShardStats(String shard, long count, long totalSize) {
+        this.shard = shard;
+        this.count = count;
+        this.totalSize = totalSize;
+    }
+
+    public String getShard() {
+        return shard;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    public ShardStats plus(ShardStats other) {
+        return new ShardStats(shard, count + other.count, totalSize + other.totalSize);
+    }
+
+    public ShardStats minus(ShardStats other) {
+        return new ShardStats(shard, count - other.count, totalSize - other.totalSize);
+    }
+}
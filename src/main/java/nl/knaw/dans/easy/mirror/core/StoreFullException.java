@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import java.io.IOException;
+
+/**
+ * No volume of the mirror store has room for a DVE. Unlike other errors, this is not a problem of the DVE, which should stay in its inbox until there is room.
+ */
+public class StoreFullException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public StoreFullException(String message) {
+        super(message);
+    }
+}
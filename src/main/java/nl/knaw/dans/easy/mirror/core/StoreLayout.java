@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import java.nio.file.Path;
+
+/**
+ * The fan-out of the containers in the EASY mirror store: the number of directory levels and the number of characters of the shard key per level. The default
+ * of two levels of two characters puts doi-10-5072-fk2-xcfq1bv1.0.zip in xc/fq.
+ */
+public final class StoreLayout {
+    public static final StoreLayout DEFAULT = new StoreLayout(2, 2);
+    private static final char PADDING = '_';
+
+    private final int depth;
+    private final int width;
+
+    public StoreLayout(int depth, int width) {
+        if (depth < 1 || width < 1) {
+            throw new IllegalArgumentException(String.format("Depth and width must be at least 1, got %d and %d", depth, width));
+        }
+        this.depth = depth;
+        this.width = width;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @param baseDir the base directory of a volume of the store
+     * @param name    the name of a DVE
+     * @return the directory of the DVE, named after the first depth × width characters of its {@link ExportedDatasetVersionName#getShardKey() shard key},
+     * padded with underscores if the key is too short for the layout. All versions of a dataset share a container as long as the part of the key before the
+     * version is long enough.
+     */
+    public Path container(Path baseDir, ExportedDatasetVersionName name) {
+        String shardKey = name.getShardKey();
+        Path container = baseDir;
+        for (int level = 0; level < depth; level++) {
+            StringBuilder part = new StringBuilder(width);
+            for (int i = level * width; i < (level + 1) * width; i++) {
+                part.append(i < shardKey.length() ? shardKey.charAt(i) : PADDING);
+            }
+            container = container.resolve(part.toString());
+        }
+        return container;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof StoreLayout))
+            return false;
+        StoreLayout that = (StoreLayout) o;
+        return depth == that.depth && width == that.width;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * depth + width;
+    }
+
+    @Override
+    public String toString() {
+        return depth + "x" + width;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A lock on a volume of the store, held on the file .lock in the volume. The service holds it shared while the store is open, every node of a cluster
+ * included; a command that reorganizes the volume needs it exclusively, so it cannot run while the service is storing DVEs.
+ */
+public final class StoreLock implements Closeable {
+    private static final String LOCK_FILE = ".lock";
+
+    // A JVM can hold only one lock on a file; stores opened on the same volume in one JVM share it
+    private static final Map<Path, Held> held = new HashMap<>();
+
+    private static final class Held {
+        private final FileChannel channel;
+        private final FileLock lock;
+        private int users;
+
+        private Held(FileChannel channel, FileLock lock) {
+            this.channel = channel;
+            this.lock = lock;
+        }
+    }
+
+    private final Path file;
+    private boolean closed;
+
+    private StoreLock(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * @param volume the base directory of the volume
+     * @return the lock, shared with the other users of the store
+     * @throws IOException if the volume is locked exclusively
+     */
+    public static StoreLock shared(Path volume) throws IOException {
+        return acquire(volume, true, "is being reorganized, for instance by migrate-store");
+    }
+
+    /**
+     * @param volume the base directory of the volume
+     * @return the lock, held by this user only
+     * @throws IOException if the volume is in use, for instance by the service
+     */
+    public static StoreLock exclusive(Path volume) throws IOException {
+        return acquire(volume, false, "is in use; stop the service on all nodes first");
+    }
+
+    private static StoreLock acquire(Path volume, boolean shared, String lockedMessage) throws IOException {
+        Path file = volume.resolve(LOCK_FILE).toAbsolutePath().normalize();
+        synchronized (held) {
+            Held h = held.get(file);
+            if (h == null) {
+                h = lock(file, shared);
+                if (h != null) {
+                    held.put(file, h);
+                }
+            }
+            else if (!shared || !h.lock.isShared()) {
+                h = null;
+            }
+            if (h == null) {
+                throw new IOException(String.format("Volume %s of the store %s", volume, lockedMessage));
+            }
+            h.users++;
+            return new StoreLock(file);
+        }
+    }
+
+    private static Held lock(Path file, boolean shared) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            FileLock lock = channel.tryLock(0, Long.MAX_VALUE, shared);
+            if (lock != null) {
+                return new Held(channel, lock);
+            }
+        }
+        catch (OverlappingFileLockException e) {
+            // Held through another channel in this JVM
+        }
+        catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        channel.close();
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (held) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            Held h = held.get(file);
+            if (--h.users == 0) {
+                held.remove(file);
+                try {
+                    h.lock.release();
+                }
+                finally {
+                    h.channel.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Moves the DVEs in the volumes of the store to the containers of another layout. Each DVE is moved with a rename, after its manifest lines have been appended
+ * to the manifests of its new container, so that a migration that is interrupted can simply be run again. The service must be stopped on all nodes: the
+ * migration needs the lock on each volume exclusively. Afterwards, the indexes of the volumes are deleted, so that they are rebuilt when the service starts.
+ */
+public class StoreMigration {
+    private static final Logger log = LoggerFactory.getLogger(StoreMigration.class);
+
+    private final List<Path> volumes;
+    private final StoreLayout layout;
+    private final int parallelism;
+
+    private final AtomicLong moved = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+
+    public StoreMigration(List<Path> volumes, StoreLayout layout, int parallelism) {
+        this.volumes = volumes;
+        this.layout = layout;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Runs the migration and removes the containers that are left empty.
+     *
+     * @return the number of DVEs moved
+     * @throws IOException if a volume is in use by the service, or a DVE could not be moved
+     */
+    public long migrate() throws IOException {
+        // All volumes first, so that nothing is moved if the service is still running
+        List<StoreLock> locks = new ArrayList<>();
+        try {
+            for (Path volume : volumes) {
+                locks.add(StoreLock.exclusive(volume));
+            }
+            for (Path volume : volumes) {
+                migrate(volume);
+            }
+        }
+        finally {
+            for (StoreLock lock : locks) {
+                lock.close();
+            }
+        }
+        log.info("Migration finished: {} DVEs moved, {} skipped", moved.get(), skipped.get());
+        return moved.get();
+    }
+
+    private void migrate(Path volume) throws IOException {
+        List<Path> dves = findDves(volume);
+        log.info("Migrating {} to layout {}, {} DVEs found", volume, layout, dves.size());
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.submit(() -> dves.parallelStream().forEach(dve -> migrate(volume, dve))).get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while migrating " + volume, e);
+        }
+        catch (ExecutionException e) {
+            throw new IOException("Could not migrate " + volume, e.getCause());
+        }
+        finally {
+            pool.shutdown();
+        }
+        removeEmptyContainers(volume);
+        invalidateIndexes(volume);
+    }
+
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    private List<Path> findDves(Path volume) throws IOException {
+        List<Path> dves = new ArrayList<>();
+        Files.walkFileTree(volume, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                return isInternal(volume, dir) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && file.getFileName().toString().endsWith(".zip")) {
+                    dves.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return dves;
+    }
+
+    private void migrate(Path volume, Path dve) {
+        String fileName = dve.getFileName().toString();
+        ExportedDatasetVersionName name;
+        try {
+            name = new ExportedDatasetVersionName(fileName);
+        }
+        catch (IllegalArgumentException e) {
+            log.warn("Not a DVE, skipping: {}", dve);
+            skipped.incrementAndGet();
+            return;
+        }
+        Path container = layout.container(volume, name);
+        Path target = container.resolve(fileName);
+        if (target.equals(dve)) {
+            return;
+        }
+        try {
+            if (Files.exists(target)) {
+                log.warn("{} is already present in {}, leaving {} in place", fileName, container, dve);
+                skipped.incrementAndGet();
+                return;
+            }
+            Files.createDirectories(container);
+            copyManifestLines(dve.getParent(), container, fileName);
+            Files.move(dve, target, StandardCopyOption.ATOMIC_MOVE);
+            log.debug("Moved {} to {}", dve, target);
+            moved.incrementAndGet();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void copyManifestLines(Path from, Path to, String fileName) throws IOException {
+        String suffix = "  " + fileName;
+        for (Path manifest : listManifests(from)) {
+            List<String> lines;
+            try (Stream<String> all = Files.lines(manifest, StandardCharsets.UTF_8)) {
+                lines = all.filter(line -> line.endsWith(suffix)).collect(Collectors.toList());
+            }
+            Path targetManifest = to.resolve(manifest.getFileName());
+            Set<String> present = new HashSet<>();
+            if (Files.exists(targetManifest)) {
+                try (Stream<String> all = Files.lines(targetManifest, StandardCharsets.UTF_8)) {
+                    all.filter(line -> line.endsWith(suffix)).forEach(present::add);
+                }
+            }
+            for (String line : lines) {
+                if (present.add(line)) {
+                    // A single append per line, as in MirrorStore, so that concurrent writers to the same manifest do not interleave
+                    Files.write(targetManifest, (line + "\n").getBytes(StandardCharsets.UTF_8),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE);
+                }
+            }
+        }
+    }
+
+    private static List<Path> listManifests(Path dir) throws IOException {
+        List<Path> manifests = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "manifest-*.txt")) {
+            stream.forEach(manifests::add);
+        }
+        return manifests;
+    }
+
+    /*
+     * A container is left empty when it no longer holds any DVE, only the manifests of the DVEs that were moved out of it. Directories are visited bottom-up so
+     * that the parents of removed containers are removed too when nothing else is left in them.
+     */
+    private void removeEmptyContainers(Path volume) throws IOException {
+        Files.walkFileTree(volume, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                return isInternal(volume, dir) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                if (e != null) {
+                    throw e;
+                }
+                if (dir.equals(volume) || containsDves(dir)) {
+                    return FileVisitResult.CONTINUE;
+                }
+                for (Path manifest : listManifests(dir)) {
+                    Files.delete(manifest);
+                }
+                try (Stream<Path> entries = Files.list(dir)) {
+                    if (!entries.findAny().isPresent()) {
+                        Files.delete(dir);
+                        log.debug("Removed empty container {}", dir);
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /*
+     * The indexes record the path of each DVE, so those of all nodes are deleted, to be rebuilt from the new containers when the service starts. The digest
+     * indexes are keyed by DVE name and stay valid.
+     */
+    private void invalidateIndexes(Path volume) throws IOException {
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(volume, MirrorStore.INDEX_DIR + "*")) {
+            for (Path dir : dirs) {
+                if (Files.isDirectory(dir)) {
+                    MirrorStoreIndex.invalidate(dir);
+                    log.debug("Invalidated index {}", dir);
+                }
+            }
+        }
+    }
+
+    /*
+     * The indexes and the lock are in hidden directories at the top of the volume. Deeper down, a container may start with a dot, when the version is part of
+     * the shard key.
+     */
+    private static boolean isInternal(Path volume, Path dir) {
+        return volume.equals(dir.getParent()) && dir.getFileName().toString().startsWith(".");
+    }
+
+    private static boolean containsDves(Path dir) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.zip")) {
+            return stream.iterator().hasNext();
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Re-checks the DVEs in the EASY mirror store in the background. For each DVE the central directory is read and every entry is decompressed and its CRC
+ * compared to the one recorded in the ZIP. Reads are paced to a maximum number of bytes per second read from disk, that is of compressed data, so that
+ * scrubbing does not compete with ingest for I/O.
+ * <p>
+ * The DVEs are checked in the order of their {@link DatasetVersionKey}. The key of the last checked DVE is saved in a position file, so that after a restart
+ * the pass resumes where it left off. Corrupt and missing DVEs, and the completion of each pass, are appended to a report file.
+ */
+public class StoreScrubber implements Managed {
+    private static final Logger log = LoggerFactory.getLogger(StoreScrubber.class);
+    private static final String POSITION_FILE = "position";
+    private static final String REPORT_FILE = "report.txt";
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final MirrorStore mirrorStore;
+    private final Path dataDir;
+    private final long bytesPerSecond;
+    private final long pauseBetweenPasses;
+    private final Counter checked;
+    private final Counter corrupt;
+    private final Meter bytesRead;
+    private volatile long lastPassCompleted;
+    private volatile boolean running;
+    private Thread thread;
+
+    /**
+     * @param mirrorStore        the store to scrub
+     * @param dataDir            the directory for the position and report files
+     * @param bytesPerSecond     the maximum read rate
+     * @param pauseBetweenPasses the pause in milliseconds after a complete pass over the store
+     * @param metrics            the registry to register the metrics of the scrubber with
+     */
+    public StoreScrubber(MirrorStore mirrorStore, Path dataDir, long bytesPerSecond, long pauseBetweenPasses, MetricRegistry metrics) {
+        this.mirrorStore = mirrorStore;
+        this.dataDir = dataDir;
+        this.bytesPerSecond = bytesPerSecond;
+        this.pauseBetweenPasses = pauseBetweenPasses;
+        this.checked = metrics.counter(MetricRegistry.name(StoreScrubber.class, "checked"));
+        this.corrupt = metrics.counter(MetricRegistry.name(StoreScrubber.class, "corrupt"));
+        this.bytesRead = metrics.meter(MetricRegistry.name(StoreScrubber.class, "bytes-read"));
+        metrics.register(MetricRegistry.name(StoreScrubber.class, "last-pass-completed"), (Gauge<Long>) () -> lastPassCompleted);
+    }
+
+    @Override
+    public void start() throws IOException {
+        Files.createDirectories(dataDir);
+        running = true;
+        thread = new Thread(this::run, "store-scrubber");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    @Override
+    public void stop() throws InterruptedException {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+            thread.join(10000);
+        }
+    }
+
+    private void run() {
+        log.info("Store scrubber started, reading at most {} bytes per second", bytesPerSecond);
+        while (running) {
+            try {
+                runPass();
+                Thread.sleep(pauseBetweenPasses);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            catch (IOException | RuntimeException e) {
+                log.error("Store scrubber pass failed, retrying later", e);
+                try {
+                    Thread.sleep(pauseBetweenPasses);
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        log.info("Store scrubber stopped");
+    }
+
+    /**
+     * Checks the DVEs after the saved position, up to the end of the store.
+     *
+     * @throws IOException          if the position or report file could not be written
+     * @throws InterruptedException if interrupted while pacing the reads
+     */
+    void runPass() throws IOException, InterruptedException {
+        DatasetVersionKey position = readPosition();
+        List<StoredDve> dves = mirrorStore.getAll();
+        long passChecked = 0;
+        long passCorrupt = 0;
+        long passStart = System.currentTimeMillis();
+        for (StoredDve dve : dves) {
+            if (position != null && dve.getKey().compareTo(position) <= 0) {
+                continue;
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException();
+            }
+            dve = mirrorStore.locate(dve);
+            String problem = check(dve.getPath());
+            checked.inc();
+            passChecked++;
+            if (problem != null) {
+                corrupt.inc();
+                passCorrupt++;
+                log.error("Corrupt DVE in mirror store: {}: {}", dve.getPath(), problem);
+                report("CORRUPT", dve.getPath() + "\t" + problem);
+            }
+            writePosition(dve.getKey());
+        }
+        report("PASS-COMPLETED", String.format("checked=%d\tcorrupt=%d\tseconds=%d", passChecked, passCorrupt, (System.currentTimeMillis() - passStart) / 1000));
+        Files.deleteIfExists(dataDir.resolve(POSITION_FILE));
+        lastPassCompleted = System.currentTimeMillis();
+        log.info("Store scrubber pass completed: checked {} DVEs, {} corrupt", passChecked, passCorrupt);
+    }
+
+    /**
+     * @param zip the ZIP file to check
+     * @return a description of the problem, or null if the ZIP is intact
+     * @throws InterruptedException if interrupted while pacing the reads
+     */
+    String check(Path zip) throws InterruptedException {
+        // Java 8 reports a missing file as a ZipException, like a corrupt one
+        if (Files.notExists(zip)) {
+            return "missing";
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long start = System.nanoTime();
+        long read = 0;
+        try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                CRC32 crc = new CRC32();
+                long entryStart = read;
+                long decompressed = 0;
+                try (InputStream in = zipFile.getInputStream(entry)) {
+                    int n;
+                    while ((n = in.read(buffer)) != -1) {
+                        crc.update(buffer, 0, n);
+                        decompressed += n;
+                        // The decompressed bytes stand for the compressed bytes read from disk in proportion
+                        long fileBytes = entryStart + compressedBytes(entry, decompressed);
+                        bytesRead.mark(fileBytes - read);
+                        read = fileBytes;
+                        pace(start, read);
+                    }
+                }
+                if (entry.getCrc() != -1 && crc.getValue() != entry.getCrc()) {
+                    return String.format("CRC mismatch in entry %s", entry.getName());
+                }
+            }
+            return null;
+        }
+        catch (NoSuchFileException e) {
+            return "missing";
+        }
+        catch (IOException e) {
+            return e.toString();
+        }
+    }
+
+    private static long compressedBytes(ZipEntry entry, long decompressed) {
+        long size = entry.getSize();
+        long compressedSize = entry.getCompressedSize();
+        if (size <= 0 || compressedSize < 0) {
+            return decompressed;
+        }
+        return Math.min(compressedSize, (long) ((double) decompressed / size * compressedSize));
+    }
+
+    // Sleeps until reading the given number of bytes since start is within the budget
+    private void pace(long start, long read) throws InterruptedException {
+        long due = read * 1000L / bytesPerSecond;
+        long elapsed = (System.nanoTime() - start) / 1000000L;
+        if (due > elapsed) {
+            Thread.sleep(due - elapsed);
+        }
+    }
+
+    private DatasetVersionKey readPosition() throws IOException {
+        Path positionFile = dataDir.resolve(POSITION_FILE);
+        if (!Files.exists(positionFile)) {
+            return null;
+        }
+        String[] fields = new String(Files.readAllBytes(positionFile), StandardCharsets.UTF_8).trim().split("\t");
+        if (fields.length != 3) {
+            log.warn("Ignoring invalid scrubber position file {}", positionFile);
+            return null;
+        }
+        log.info("Resuming store scrub after {}v{}.{}", fields[0], fields[1], fields[2]);
+        return new DatasetVersionKey(fields[0], Integer.parseInt(fields[1]), Integer.parseInt(fields[2]));
+    }
+
+    private void writePosition(DatasetVersionKey key) throws IOException {
+        Path tmp = dataDir.resolve(POSITION_FILE + ".tmp");
+        Files.write(tmp, (key.getSpaceName() + "\t" + key.getMajorVersion() + "\t" + key.getMinorVersion() + "\n").getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, dataDir.resolve(POSITION_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void report(String event, String details) throws IOException {
+        Files.write(dataDir.resolve(REPORT_FILE), (Instant.now() + "\t" + event + "\t" + details + "\n").getBytes(StandardCharsets.UTF_8),
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE);
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import java.nio.file.Path;
+
+/**
+ * A DVE in the EASY mirror store, as recorded in the {@link MirrorStoreIndex}.
+ */
+public final class StoredDve {
+    private final DatasetVersionKey key;
+    private final Path path;
+    private final long size;
+    private final long storedAt;
+
+    public StoredDve(DatasetVersionKey key, Path path, long size, long storedAt) {
+        this.key = key;
+        this.path = path;
+        this.size = size;
+        this.storedAt = storedAt;
+    }
+
+    public DatasetVersionKey getKey() {
+        return key;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the time the DVE was stored in milliseconds since the epoch; for DVEs found by rebuilding the index this is the last modified time of the file
+     */
+    public long getStoredAt() {
+        return storedAt;
+    }
+}
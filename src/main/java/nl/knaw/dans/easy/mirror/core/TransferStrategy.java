@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Copies a DVE to the store when it cannot be renamed into it, because it is on another file system. The copy is made into a temporary file in the target
+ * container; {@link MirrorStore} verifies it, syncs it according to its {@link FsyncPolicy} and renames it into place.
+ */
+public interface TransferStrategy {
+
+    /**
+     * @param source     the DVE to copy
+     * @param target     the file to create; it must not exist yet
+     * @param algorithms the checksums to compute
+     * @return the checksums of the source, by algorithm
+     * @throws IOException if the file could not be copied
+     */
+    Map<String, String> copy(Path source, Path target, List<String> algorithms) throws IOException;
+
+    /**
+     * Copies through a buffer in user space, computing the checksums of the copied bytes in the same pass.
+     */
+    class StreamTransfer implements TransferStrategy {
+        private final int bufferSize;
+
+        public StreamTransfer(int bufferSize) {
+            this.bufferSize = bufferSize;
+        }
+
+        @Override
+        public Map<String, String> copy(Path source, Path target, List<String> algorithms) throws IOException {
+            return Checksums.copy(source, target, algorithms, bufferSize);
+        }
+
+        @Override
+        public String toString() {
+            return "stream";
+        }
+    }
+
+    /**
+     * Copies with {@link java.nio.channels.FileChannel#transferTo}, which lets the kernel move the bytes without copying them to user space. The checksums are
+     * computed from the source afterwards, so the source is read twice; the second read only comes from the page cache if the DVE fits in it. Only worth it
+     * where copying to user space, not reading, is the bottleneck.
+     */
+    class ChannelTransfer implements TransferStrategy {
+
+        @Override
+        public Map<String, String> copy(Path source, Path target, List<String> algorithms) throws IOException {
+            Checksums.transfer(source, target);
+            return Checksums.compute(source, algorithms);
+        }
+
+        @Override
+        public String toString() {
+            return "channel";
+        }
+    }
+}
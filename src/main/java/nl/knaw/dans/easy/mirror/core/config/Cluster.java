@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core.config;
+
+import io.dropwizard.util.Duration;
+
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Pattern;
+
+public class Cluster {
+
+    /**
+     * Whether other nodes process the same inboxes, so that DVEs must be claimed before they are processed.
+     */
+    private boolean enabled = false;
+
+    /**
+     * The name of the claim directory of this node in each inbox, and of its index directory in each volume of the store; must differ between the nodes. If
+     * not set, the host name is used.
+     */
+    @Pattern(regexp = "[A-Za-z0-9_-]+")
+    private String nodeId;
+
+    /**
+     * How often the node renews its leases and looks for expired leases of other nodes.
+     */
+    @NotNull
+    private Duration heartbeatInterval = Duration.seconds(10);
+
+    /**
+     * A node that has not renewed its lease for this long is considered dead, and its claimed DVEs are returned to the inbox. Must be well above the heartbeat
+     * interval plus the clock difference between the nodes.
+     */
+    @NotNull
+    private Duration leaseTimeout = Duration.minutes(2);
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    public Duration getHeartbeatInterval() {
+        return heartbeatInterval;
+    }
+
+    public void setHeartbeatInterval(Duration heartbeatInterval) {
+        this.heartbeatInterval = heartbeatInterval;
+    }
+
+    public Duration getLeaseTimeout() {
+        return leaseTimeout;
+    }
+
+    public void setLeaseTimeout(Duration leaseTimeout) {
+        this.leaseTimeout = leaseTimeout;
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core.config;
+
+/**
+ * How new DVEs in an inbox are detected.
+ */
+public enum DetectionMode {
+    /**
+     * Use file system events, unless the inbox is on a network file system, where these are unreliable.
+     */
+    AUTO,
+    /**
+     * Use file system events through a {@link java.nio.file.WatchService}.
+     */
+    WATCH,
+    /**
+     * List the inbox every polling interval.
+     */
+    POLL
+}
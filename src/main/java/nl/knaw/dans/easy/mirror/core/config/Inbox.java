@@ -16,6 +16,7 @@
 package nl.knaw.dans.easy.mirror.core.config;
 
 import javax.validation.Valid;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 import java.nio.file.Path;
 
@@ -25,6 +26,12 @@ public class Inbox {
     @Valid
     private Path path;
 
+    @NotNull
+    private DetectionMode detectionMode = DetectionMode.AUTO;
+
+    @Min(1)
+    private int weight = 1;
+
     public Path getPath() {
         return path;
     }
@@ -32,4 +39,20 @@ public class Inbox {
     public void setPath(Path path) {
         this.path = path;
     }
+
+    public DetectionMode getDetectionMode() {
+        return detectionMode;
+    }
+
+    public void setDetectionMode(DetectionMode detectionMode) {
+        this.detectionMode = detectionMode;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public void setWeight(int weight) {
+        this.weight = weight;
+    }
 }
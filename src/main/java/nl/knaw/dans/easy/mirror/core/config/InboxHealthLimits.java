@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core.config;
+
+import io.dropwizard.util.Duration;
+
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Limits beyond which an inbox is reported as unhealthy.
+ */
+public class InboxHealthLimits {
+
+    @Min(1)
+    private int maxPending = 10000;
+
+    @NotNull
+    private Duration maxOldestPendingAge = Duration.hours(1);
+
+    @DecimalMin("0.0")
+    @DecimalMax("1.0")
+    private double maxFailureRate = 0.5;
+
+    public int getMaxPending() {
+        return maxPending;
+    }
+
+    public void setMaxPending(int maxPending) {
+        this.maxPending = maxPending;
+    }
+
+    public Duration getMaxOldestPendingAge() {
+        return maxOldestPendingAge;
+    }
+
+    public void setMaxOldestPendingAge(Duration maxOldestPendingAge) {
+        this.maxOldestPendingAge = maxOldestPendingAge;
+    }
+
+    public double getMaxFailureRate() {
+        return maxFailureRate;
+    }
+
+    public void setMaxFailureRate(double maxFailureRate) {
+        this.maxFailureRate = maxFailureRate;
+    }
+}
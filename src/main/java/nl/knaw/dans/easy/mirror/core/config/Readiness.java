@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core.config;
+
+import io.dropwizard.util.Duration;
+
+import javax.validation.constraints.NotNull;
+
+public class Readiness {
+
+    /**
+     * How long the size and modification time of a DVE must stay the same before it is considered completely written.
+     */
+    @NotNull
+    private Duration quietPeriod = Duration.seconds(5);
+
+    /**
+     * How often DVEs that are still being written are checked.
+     */
+    @NotNull
+    private Duration checkInterval = Duration.seconds(1);
+
+    public Duration getQuietPeriod() {
+        return quietPeriod;
+    }
+
+    public void setQuietPeriod(Duration quietPeriod) {
+        this.quietPeriod = quietPeriod;
+    }
+
+    public Duration getCheckInterval() {
+        return checkInterval;
+    }
+
+    public void setCheckInterval(Duration checkInterval) {
+        this.checkInterval = checkInterval;
+    }
+}
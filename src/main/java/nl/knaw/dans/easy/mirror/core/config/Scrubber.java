@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core.config;
+
+import io.dropwizard.util.DataSize;
+import io.dropwizard.util.Duration;
+import io.dropwizard.validation.ValidationMethod;
+
+import javax.validation.constraints.NotNull;
+import java.nio.file.Path;
+
+public class Scrubber {
+
+    private boolean enabled = false;
+
+    /**
+     * Directory for the position of the current pass and the report of corrupt DVEs.
+     */
+    private Path dataDir;
+
+    /**
+     * The maximum number of bytes read from disk per second.
+     */
+    @NotNull
+    private DataSize bytesPerSecond = DataSize.mebibytes(20);
+
+    @NotNull
+    private Duration pauseBetweenPasses = Duration.days(1);
+
+    @ValidationMethod(message = "dataDir is required when the scrubber is enabled")
+    public boolean isDataDirSetWhenEnabled() {
+        return !enabled || dataDir != null;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Path getDataDir() {
+        return dataDir;
+    }
+
+    public void setDataDir(Path dataDir) {
+        this.dataDir = dataDir;
+    }
+
+    public DataSize getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public void setBytesPerSecond(DataSize bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public Duration getPauseBetweenPasses() {
+        return pauseBetweenPasses;
+    }
+
+    public void setPauseBetweenPasses(Duration pauseBetweenPasses) {
+        this.pauseBetweenPasses = pauseBetweenPasses;
+    }
+}
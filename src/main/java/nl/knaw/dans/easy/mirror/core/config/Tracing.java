@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core.config;
+
+import io.dropwizard.util.Duration;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+public class Tracing {
+
+    /**
+     * DVEs that take longer than this from detection to the store are logged with the time spent in each stage.
+     */
+    @NotNull
+    private Duration slowThreshold = Duration.minutes(1);
+
+    /**
+     * The number of most recently processed DVEs from which the slowest-dves task selects.
+     */
+    @Min(1)
+    private int recentSize = 1000;
+
+    public Duration getSlowThreshold() {
+        return slowThreshold;
+    }
+
+    public void setSlowThreshold(Duration slowThreshold) {
+        this.slowThreshold = slowThreshold;
+    }
+
+    public int getRecentSize() {
+        return recentSize;
+    }
+
+    public void setRecentSize(int recentSize) {
+        this.recentSize = recentSize;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core.config;
+
+import io.dropwizard.util.DataSize;
+import io.dropwizard.validation.DataSizeRange;
+import nl.knaw.dans.easy.mirror.core.FsyncPolicy;
+
+import javax.validation.constraints.NotNull;
+
+public class Transfer {
+
+    /**
+     * STREAM computes the checksums while copying; CHANNEL reads the source a second time for them.
+     */
+    @NotNull
+    private TransferMethod method = TransferMethod.STREAM;
+
+    /**
+     * The buffer size of the STREAM method.
+     */
+    @NotNull
+    @DataSizeRange(min = 4 * 1024, max = 256 * 1024 * 1024)
+    private DataSize bufferSize = DataSize.mebibytes(1);
+
+    @NotNull
+    private FsyncPolicy fsync = FsyncPolicy.FILE_AND_DIRECTORY;
+
+    public TransferMethod getMethod() {
+        return method;
+    }
+
+    public void setMethod(TransferMethod method) {
+        this.method = method;
+    }
+
+    public DataSize getBufferSize() {
+        return bufferSize;
+    }
+
+    public void setBufferSize(DataSize bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    public FsyncPolicy getFsync() {
+        return fsync;
+    }
+
+    public void setFsync(FsyncPolicy fsync) {
+        this.fsync = fsync;
+    }
+}
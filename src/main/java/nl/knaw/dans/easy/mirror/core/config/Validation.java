@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core.config;
+
+import javax.validation.constraints.Min;
+
+public class Validation {
+
+    private boolean enabled = false;
+
+    /**
+     * Also compare the checksums of the payload files to the manifest, rather than only checking that the bag is complete.
+     */
+    private boolean verifyPayload = false;
+
+    /**
+     * Number of threads for validation, separate from the workers that move DVEs into the store.
+     */
+    @Min(1)
+    private int threads = 2;
+
+    /**
+     * Maximum number of DVEs waiting for validation, over all inboxes.
+     */
+    @Min(1)
+    private int maxQueueSize = 100;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isVerifyPayload() {
+        return verifyPayload;
+    }
+
+    public void setVerifyPayload(boolean verifyPayload) {
+        this.verifyPayload = verifyPayload;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public int getMaxQueueSize() {
+        return maxQueueSize;
+    }
+
+    public void setMaxQueueSize(int maxQueueSize) {
+        this.maxQueueSize = maxQueueSize;
+    }
+}
@@ -16,31 +16,32 @@
 package nl.knaw.dans.easy.mirror.health;
 
 import com.codahale.metrics.health.HealthCheck;
-
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import nl.knaw.dans.easy.mirror.core.InboxStats;
+import nl.knaw.dans.easy.mirror.core.config.InboxHealthLimits;
 
 public class InboxHealth extends HealthCheck {
-    private final Path inboxDir;
+    private final InboxStats stats;
+    private final InboxHealthLimits limits;
 
-    public InboxHealth(Path inboxDir) {
-        this.inboxDir = inboxDir;
+    public InboxHealth(InboxStats stats, InboxHealthLimits limits) {
+        this.stats = stats;
+        this.limits = limits;
     }
 
     @Override
     protected Result check() {
-        try (Stream<Path> inboxFiles = Files.list(inboxDir)) {
-            String inboxFileNames = inboxFiles.map(Path::getFileName).map(Path::toString).collect(Collectors.joining(", "));
-            if (inboxFileNames.isEmpty()) {
-                return Result.unhealthy("Inbox is empty");
-            }
+        int pending = stats.getPendingCount();
+        long oldestPendingAge = stats.getOldestPendingAge();
+        double failureRate = stats.getFailureRate();
+        if (pending > limits.getMaxPending()) {
+            return Result.unhealthy("Backlog of %d DVEs exceeds limit of %d", pending, limits.getMaxPending());
+        }
+        if (oldestPendingAge > limits.getMaxOldestPendingAge().toMilliseconds()) {
+            return Result.unhealthy("Oldest pending DVE waiting for %d s, exceeds limit of %s", oldestPendingAge / 1000, limits.getMaxOldestPendingAge());
         }
-        catch (IOException e) {
-            return Result.unhealthy("Could not read inbox", e);
+        if (failureRate > limits.getMaxFailureRate()) {
+            return Result.unhealthy("Failure rate of %.2f exceeds limit of %.2f", failureRate, limits.getMaxFailureRate());
         }
-        return Result.healthy();
+        return Result.healthy("%d DVEs pending, failure rate %.2f", pending, failureRate);
     }
 }
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.health;
+
+import com.codahale.metrics.health.HealthCheck;
+import io.dropwizard.util.DataSize;
+import nl.knaw.dans.easy.mirror.core.MirrorStore;
+
+public class MirrorStoreHealth extends HealthCheck {
+    private final MirrorStore mirrorStore;
+
+    public MirrorStoreHealth(MirrorStore mirrorStore) {
+        this.mirrorStore = mirrorStore;
+    }
+
+    @Override
+    protected Result check() {
+        DataSize usable = DataSize.bytes(mirrorStore.getUsableSpace());
+        if (mirrorStore.isFull()) {
+            return Result.unhealthy("Store full, DVEs are held in the inboxes: %s usable, minFreeSpace is %s", usable, DataSize.bytes(mirrorStore.getMinFreeSpace()));
+        }
+        return Result.healthy("%s usable", usable);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.resources;
+
+import nl.knaw.dans.easy.mirror.api.ShardSummary;
+import nl.knaw.dans.easy.mirror.api.StoreSummary;
+import nl.knaw.dans.easy.mirror.api.StoredVersion;
+import nl.knaw.dans.easy.mirror.core.MirrorStore;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Read-only queries over the EASY mirror store. All answers come from the in-memory index of the store.
+ */
+@Path("/")
+@Produces(MediaType.APPLICATION_JSON)
+public class MirrorStoreResource {
+    private final MirrorStore mirrorStore;
+
+    public MirrorStoreResource(MirrorStore mirrorStore) {
+        this.mirrorStore = mirrorStore;
+    }
+
+    @GET
+    @Path("datasets/{spaceName}/versions")
+    public List<StoredVersion> getVersions(@PathParam("spaceName") String spaceName) {
+        List<StoredVersion> versions = mirrorStore.getVersions(spaceName).stream().map(StoredVersion::new).collect(Collectors.toList());
+        if (versions.isEmpty()) {
+            throw new NotFoundException("No versions of " + spaceName + " in the mirror store");
+        }
+        return versions;
+    }
+
+    @GET
+    @Path("datasets/{spaceName}/versions/latest")
+    public StoredVersion getLatestVersion(@PathParam("spaceName") String spaceName) {
+        return mirrorStore.getLatestVersion(spaceName)
+            .map(StoredVersion::new)
+            .orElseThrow(() -> new NotFoundException("No versions of " + spaceName + " in the mirror store"));
+    }
+
+    @GET
+    @Path("shards")
+    public StoreSummary getShards() {
+        return new StoreSummary(mirrorStore.getShardStats().values().stream().map(ShardSummary::new).collect(Collectors.toList()));
+    }
+}
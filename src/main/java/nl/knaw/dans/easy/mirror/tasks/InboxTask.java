@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.tasks;
+
+import io.dropwizard.servlets.tasks.Task;
+import nl.knaw.dans.easy.mirror.core.MirroringService;
+import nl.knaw.dans.easy.mirror.core.config.Inbox;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * A task on one or more inboxes, given by the parameter <code>inbox</code>, either the path of an inbox or the name of its directory.
+ */
+public abstract class InboxTask extends Task {
+    protected final MirroringService mirroringService;
+
+    protected InboxTask(String name, MirroringService mirroringService) {
+        super(name);
+        this.mirroringService = mirroringService;
+    }
+
+    /**
+     * @param names the values of the <code>inbox</code> parameter, or null if it was not given
+     * @return the inboxes matching the names, or all inboxes if no names were given
+     */
+    protected List<Inbox> findInboxes(List<String> names) {
+        List<Inbox> inboxes = mirroringService.getInboxes();
+        if (names == null || names.isEmpty()) {
+            return inboxes;
+        }
+        return inboxes.stream()
+            .filter(i -> names.contains(i.getPath().toString()) || names.contains(i.getPath().getFileName().toString()))
+            .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.tasks;
+
+import nl.knaw.dans.easy.mirror.core.MirroringService;
+import nl.knaw.dans.easy.mirror.core.config.Inbox;
+
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Moves the DVEs in the failedBox back into an inbox, so that they go through the mirroring pipeline again. The inbox is given by the parameter
+ * <code>inbox</code>, either its path or the name of its directory; by default the first configured inbox is used.
+ *
+ * <pre>
+ * curl -X POST 'http://localhost:20311/tasks/reingest-failed?inbox=archaeology'
+ * </pre>
+ */
+public class ReingestFailedTask extends InboxTask {
+
+    public ReingestFailedTask(MirroringService mirroringService) {
+        super("reingest-failed", mirroringService);
+    }
+
+    @Override
+    public void execute(Map<String, List<String>> parameters, PrintWriter output) throws Exception {
+        Optional<Inbox> inbox = findInboxes(parameters.get("inbox")).stream().findFirst();
+        if (!inbox.isPresent()) {
+            output.println("No such inbox: " + parameters.get("inbox"));
+            return;
+        }
+        int moved = mirroringService.reingestFailed(inbox.get());
+        output.printf("Moved %d DVEs from failedBox to %s%n", moved, inbox.get().getPath());
+    }
+}
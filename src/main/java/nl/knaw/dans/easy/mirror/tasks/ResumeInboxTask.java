@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.tasks;
+
+import nl.knaw.dans.easy.mirror.core.MirroringService;
+import nl.knaw.dans.easy.mirror.core.config.Inbox;
+
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resumes taking DVEs from the given inboxes, or from all inboxes if none are given, after {@link PauseInboxTask}.
+ *
+ * <pre>
+ * curl -X POST 'http://localhost:20311/tasks/resume-inbox?inbox=archaeology'
+ * </pre>
+ */
+public class ResumeInboxTask extends InboxTask {
+
+    public ResumeInboxTask(MirroringService mirroringService) {
+        super("resume-inbox", mirroringService);
+    }
+
+    @Override
+    public void execute(Map<String, List<String>> parameters, PrintWriter output) {
+        List<Inbox> inboxes = findInboxes(parameters.get("inbox"));
+        if (inboxes.isEmpty()) {
+            output.println("No such inbox: " + parameters.get("inbox"));
+            return;
+        }
+        for (Inbox inbox : inboxes) {
+            output.printf("%s %s%n", inbox.getPath(), mirroringService.resume(inbox) ? "resumed" : "was not paused");
+        }
+    }
+}
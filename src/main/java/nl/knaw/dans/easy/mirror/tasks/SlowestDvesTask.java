@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.tasks;
+
+import io.dropwizard.servlets.tasks.Task;
+import nl.knaw.dans.easy.mirror.core.DveLatency;
+import nl.knaw.dans.easy.mirror.core.DveLatencyTracker;
+
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lists the slowest of the most recently processed DVEs, with the time spent in each stage. The number of DVEs is given by the parameter <code>count</code>,
+ * 20 by default.
+ *
+ * <pre>
+ * curl -X POST 'http://localhost:20311/tasks/slowest-dves?count=10'
+ * </pre>
+ */
+public class SlowestDvesTask extends Task {
+    private static final int DEFAULT_COUNT = 20;
+
+    private final DveLatencyTracker latencyTracker;
+
+    public SlowestDvesTask(DveLatencyTracker latencyTracker) {
+        super("slowest-dves");
+        this.latencyTracker = latencyTracker;
+    }
+
+    @Override
+    public void execute(Map<String, List<String>> parameters, PrintWriter output) {
+        List<String> count = parameters.get("count");
+        int n;
+        try {
+            n = count == null || count.isEmpty() ? DEFAULT_COUNT : Integer.parseInt(count.get(0));
+        }
+        catch (NumberFormatException e) {
+            output.println("Not a number: " + count.get(0));
+            return;
+        }
+        for (DveLatency latency : latencyTracker.getSlowest(n)) {
+            output.println(latency);
+        }
+    }
+}
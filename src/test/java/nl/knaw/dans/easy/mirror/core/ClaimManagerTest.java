@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import com.codahale.metrics.MetricRegistry;
+import nl.knaw.dans.easy.mirror.core.config.Inbox;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ClaimManagerTest {
+    private static final String DVE_NAME = "doi-10-5072-fk2-xcfq1bv1.0.zip";
+    private final Path inboxDir = Paths.get("target/test/ClaimManagerTest/inbox");
+    private final Inbox inbox = new Inbox();
+    private final List<ClaimManager> nodes = new ArrayList<>();
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        FileUtils.deleteDirectory(inboxDir.toFile());
+        Files.createDirectories(inboxDir);
+        inbox.setPath(inboxDir);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        nodes.forEach(ClaimManager::stop);
+    }
+
+    private ClaimManager startNode(String nodeId, long leaseTimeout) throws Exception {
+        ClaimManager node = new ClaimManager(nodeId, Collections.singletonList(inbox), leaseTimeout / 2, leaseTimeout, new MetricRegistry());
+        node.start();
+        nodes.add(node);
+        return node;
+    }
+
+    private Dve createDve() throws Exception {
+        Dve dve = new Dve(Files.createFile(inboxDir.resolve(DVE_NAME)));
+        Files.createFile(dve.getXmlFile().get());
+        return dve;
+    }
+
+    @Test
+    public void only_one_node_claims_a_dve() throws Exception {
+        ClaimManager nodeA = startNode("node-a", 120000);
+        ClaimManager nodeB = startNode("node-b", 120000);
+        Dve dve = createDve();
+
+        ExecutorService workers = Executors.newFixedThreadPool(2);
+        CountDownLatch go = new CountDownLatch(1);
+        try {
+            Future<Optional<Dve>> a = workers.submit(() -> {
+                go.await();
+                return nodeA.claim(inbox, dve);
+            });
+            Future<Optional<Dve>> b = workers.submit(() -> {
+                go.await();
+                return nodeB.claim(inbox, dve);
+            });
+            go.countDown();
+            Optional<Dve> claimedByA = a.get(10, TimeUnit.SECONDS);
+            Optional<Dve> claimedByB = b.get(10, TimeUnit.SECONDS);
+
+            assertTrue(claimedByA.isPresent() ^ claimedByB.isPresent());
+            Dve claimed = claimedByA.isPresent() ? claimedByA.get() : claimedByB.get();
+            assertTrue(Files.exists(claimed.getPath()));
+            assertTrue(Files.exists(claimed.getXmlFile().get()));
+            assertFalse(Files.exists(dve.getPath()));
+            assertTrue(claimed.getStageTimes().containsKey(Dve.Stage.CLAIMED));
+            assertEquals(dve.getPath(), (claimedByA.isPresent() ? nodeA : nodeB).getInboxPath(claimed.getPath()));
+        }
+        finally {
+            workers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void release_returns_dve_and_xml_to_inbox() throws Exception {
+        ClaimManager node = startNode("node-a", 120000);
+        Dve dve = createDve();
+
+        Dve claimed = node.claim(inbox, dve).get();
+        assertTrue(node.isClaimed(claimed));
+        node.release(claimed);
+
+        assertTrue(Files.exists(dve.getPath()));
+        assertTrue(Files.exists(dve.getXmlFile().get()));
+        assertFalse(Files.exists(claimed.getPath()));
+    }
+
+    @Test
+    public void claims_of_node_with_expired_lease_are_returned_to_inbox() throws Exception {
+        ClaimManager nodeA = startNode("node-a", 60000);
+        ClaimManager nodeB = startNode("node-b", 60000);
+        Dve dve = createDve();
+        Dve claimed = nodeA.claim(inbox, dve).get();
+
+        assertEquals(0, nodeB.reclaimExpired(inbox));
+        assertTrue(Files.exists(claimed.getPath()));
+
+        // Node A stops renewing its lease
+        Path lease = nodeA.getClaimDir(inbox).resolve(ClaimManager.LEASE_FILE);
+        Files.setLastModifiedTime(lease, FileTime.fromMillis(System.currentTimeMillis() - 120000));
+
+        assertEquals(1, nodeB.reclaimExpired(inbox));
+        assertTrue(Files.exists(dve.getPath()));
+        assertTrue(Files.exists(dve.getXmlFile().get()));
+        assertFalse(Files.exists(claimed.getPath()));
+        assertTrue(nodeB.claim(inbox, dve).isPresent());
+    }
+
+    @Test
+    public void node_does_not_hold_lease_it_could_not_renew() throws Exception {
+        ClaimManager node = startNode("node-a", 60000);
+        assertTrue(node.holdsLease(inbox));
+
+        Path lease = node.getClaimDir(inbox).resolve(ClaimManager.LEASE_FILE);
+        Files.setLastModifiedTime(lease, FileTime.fromMillis(System.currentTimeMillis() - 40000));
+        assertFalse(node.holdsLease(inbox));
+    }
+
+    @Test
+    public void restarted_node_returns_its_old_claims_to_inbox() throws Exception {
+        ClaimManager before = new ClaimManager("node-a", Collections.singletonList(inbox), 60000, 120000, new MetricRegistry());
+        before.start();
+        Dve dve = createDve();
+        before.claim(inbox, dve).get();
+        // Crashes: no stop
+
+        startNode("node-a", 120000);
+
+        assertTrue(Files.exists(dve.getPath()));
+        assertTrue(Files.exists(dve.getXmlFile().get()));
+    }
+}
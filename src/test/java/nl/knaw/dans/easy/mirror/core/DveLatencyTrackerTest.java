@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DveLatencyTrackerTest {
+
+    private Dve process(String name, long moveMillis) throws InterruptedException {
+        Dve dve = new Dve(Paths.get("inbox", name));
+        dve.mark(Dve.Stage.READY);
+        dve.mark(Dve.Stage.STARTED);
+        dve.mark(Dve.Stage.CHECKED);
+        Thread.sleep(moveMillis);
+        dve.mark(Dve.Stage.MOVED);
+        dve.mark(Dve.Stage.STORED);
+        return dve;
+    }
+
+    @Test
+    public void records_duration_of_each_stage_reached() throws Exception {
+        MetricRegistry metrics = new MetricRegistry();
+        DveLatencyTracker tracker = new DveLatencyTracker(Long.MAX_VALUE, 10, metrics);
+
+        DveLatency latency = tracker.complete(process("a-v1.0.zip", 50), MirrorTask.Outcome.STORED);
+
+        assertEquals(Arrays.asList(Dve.Stage.READY, Dve.Stage.STARTED, Dve.Stage.CHECKED, Dve.Stage.MOVED, Dve.Stage.STORED),
+            latency.getStages().keySet().stream().collect(Collectors.toList()));
+        assertTrue(latency.getStages().get(Dve.Stage.MOVED) >= 50);
+        assertTrue(latency.getTotal() >= latency.getStages().get(Dve.Stage.MOVED));
+        assertEquals(1, metrics.timer(MetricRegistry.name(DveLatencyTracker.class, "stage", "moved")).getCount());
+        assertEquals(0, metrics.timer(MetricRegistry.name(DveLatencyTracker.class, "stage", "validated")).getCount());
+        assertTrue(latency.toString().contains(" moved="));
+    }
+
+    @Test
+    public void retry_clears_stages_of_previous_attempt() throws Exception {
+        Dve dve = process("a-v1.0.zip", 0);
+        dve.mark(Dve.Stage.STARTED);
+
+        assertFalse(dve.getStageTimes().containsKey(Dve.Stage.MOVED));
+        assertTrue(dve.getStageTimes().containsKey(Dve.Stage.READY));
+    }
+
+    @Test
+    public void lists_slowest_of_most_recent_dves() throws Exception {
+        DveLatencyTracker tracker = new DveLatencyTracker(Long.MAX_VALUE, 3, new MetricRegistry());
+        tracker.complete(process("slowest-but-old-v1.0.zip", 200), MirrorTask.Outcome.STORED);
+        tracker.complete(process("b-v1.0.zip", 10), MirrorTask.Outcome.STORED);
+        tracker.complete(process("c-v1.0.zip", 100), MirrorTask.Outcome.STORED);
+        tracker.complete(process("d-v1.0.zip", 50), MirrorTask.Outcome.STORED);
+
+        List<String> slowest = tracker.getSlowest(2).stream().map(DveLatency::getDve).collect(Collectors.toList());
+        assertEquals(Arrays.asList("c-v1.0.zip", "d-v1.0.zip"), slowest);
+    }
+}
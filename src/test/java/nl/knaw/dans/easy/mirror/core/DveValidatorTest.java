@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DveValidatorTest {
+    private final Path testDir = Paths.get("target/test/DveValidatorTest");
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        FileUtils.deleteDirectory(testDir.toFile());
+        Files.createDirectories(testDir);
+    }
+
+    private Dve createZip(Map<String, String> entries) throws Exception {
+        Path zip = testDir.resolve("doi-10-5072-fk2-abcdefv1.0.zip");
+        try (OutputStream out = Files.newOutputStream(zip); ZipOutputStream zipOut = new ZipOutputStream(out)) {
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                zipOut.putNextEntry(new ZipEntry(entry.getKey()));
+                zipOut.write(entry.getValue().getBytes(StandardCharsets.UTF_8));
+                zipOut.closeEntry();
+            }
+        }
+        return new Dve(zip);
+    }
+
+    private Map<String, String> bag(String manifest) {
+        Map<String, String> entries = new LinkedHashMap<>();
+        entries.put("bag/bagit.txt", "BagIt-Version: 1.0\nTag-File-Character-Encoding: UTF-8\n");
+        entries.put("bag/data/hello.txt", "hello");
+        entries.put("bag/manifest-md5.txt", manifest);
+        return entries;
+    }
+
+    @Test
+    public void accepts_test_dves() {
+        DveValidator validator = new DveValidator(true);
+        assertFalse(validator.validate(new Dve(Paths.get("src/test/resources/dves/valid/doi-10-5072-fk2-xcfq1bv1.0.zip"))).isPresent());
+        assertFalse(validator.validate(new Dve(Paths.get("src/test/resources/dves/valid/doi-10-5072-fk2-xcfq1bv1.1.zip"))).isPresent());
+    }
+
+    @Test
+    public void rejects_zip_without_bagit_txt() throws Exception {
+        Map<String, String> entries = bag("5d41402abc4b2a76b9719d911017c592  data/hello.txt\n");
+        entries.remove("bag/bagit.txt");
+        assertEquals(Optional.of("No bagit.txt in bag"), new DveValidator(false).validate(createZip(entries)));
+    }
+
+    @Test
+    public void rejects_bag_missing_file_listed_in_manifest() throws Exception {
+        Optional<String> problem = new DveValidator(false).validate(createZip(bag("5d41402abc4b2a76b9719d911017c592  data/missing.txt\n")));
+        assertTrue(problem.isPresent());
+        assertTrue(problem.get().contains("data/missing.txt"));
+    }
+
+    @Test
+    public void verifies_payload_checksums_only_when_asked() throws Exception {
+        Dve dve = createZip(bag("00000000000000000000000000000000  data/hello.txt\n"));
+        assertFalse(new DveValidator(false).validate(dve).isPresent());
+        assertEquals(Optional.of("Checksum mismatch in manifest-md5.txt for data/hello.txt"), new DveValidator(true).validate(dve));
+    }
+
+    @Test
+    public void rejects_file_that_is_not_a_zip() throws Exception {
+        Path notZip = Files.write(testDir.resolve("doi-10-5072-fk2-abcdefv1.0.zip"), "not a zip".getBytes(StandardCharsets.UTF_8));
+        assertTrue(new DveValidator(false).validate(new Dve(notZip)).isPresent());
+    }
+
+    @Test
+    public void rejects_zip_with_entry_name_that_is_not_utf8() throws Exception {
+        Path zip = testDir.resolve("doi-10-5072-fk2-abcdefv1.0.zip");
+        try (OutputStream out = Files.newOutputStream(zip); ZipOutputStream zipOut = new ZipOutputStream(out, StandardCharsets.ISO_8859_1)) {
+            zipOut.putNextEntry(new ZipEntry("bag/data/caf\u00e9.txt"));
+            zipOut.closeEntry();
+        }
+        // Java 8 throws IllegalArgumentException on reading such an entry name, later versions a ZipException
+        assertTrue(new DveValidator(false).validate(new Dve(zip)).isPresent());
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ExportedDatasetVersionNameTest {
+
+    @Test
+    public void parses_zip_name() {
+        ExportedDatasetVersionName name = new ExportedDatasetVersionName("doi-10-5072-fk2-xcfq1bv1.0.zip");
+        assertEquals("doi-10-5072-fk2-xcfq1b", name.getSpaceName());
+        assertEquals(1, name.getMajorVersion());
+        assertEquals(0, name.getMinorVersion());
+        assertTrue(name.isZip());
+        assertEquals("xcfq1bv1.0.zip", name.getShardKey());
+        assertEquals("doi-10-5072-fk2-xcfq1b-datacite.v1.0.xml", name.getXmlName());
+        assertEquals("doi-10-5072-fk2-xcfq1bv1.0.zip", name.getZipName());
+    }
+
+    @Test
+    public void shard_key_of_short_last_part_includes_version_as_in_the_original_layout() {
+        ExportedDatasetVersionName name = new ExportedDatasetVersionName("doi-10-5072-fk2-abv1.0.zip");
+        assertEquals("abv1.0.zip", name.getShardKey());
+        assertEquals(Paths.get("store/ab/v1"), StoreLayout.DEFAULT.container(Paths.get("store"), name));
+    }
+
+    @Test
+    public void parses_xml_name() {
+        ExportedDatasetVersionName name = new ExportedDatasetVersionName("doi-10-5072-fk2-xcfq1b-datacite.v12.34.xml");
+        assertEquals("doi-10-5072-fk2-xcfq1b", name.getSpaceName());
+        assertEquals(12, name.getMajorVersion());
+        assertEquals(34, name.getMinorVersion());
+        assertFalse(name.isZip());
+        assertEquals("xcfq1bv12.34.zip", name.getShardKey());
+        assertEquals("doi-10-5072-fk2-xcfq1bv12.34.zip", name.getZipName());
+        assertEquals("doi-10-5072-fk2-xcfq1b-datacite.v12.34.xml", name.getXmlName());
+    }
+
+    @Test
+    public void allows_v_and_digits_at_end_of_space_name() {
+        ExportedDatasetVersionName name = new ExportedDatasetVersionName("hdl-10622-v1v2.0.zip");
+        assertEquals("hdl-10622-v1", name.getSpaceName());
+        assertEquals(2, name.getMajorVersion());
+        assertEquals(0, name.getMinorVersion());
+    }
+
+    @Test
+    public void rejects_names_not_conforming_to_pattern() {
+        for (String invalid : new String[] { "not-a-dve.zip", "v1.0.zip", "doi-abcv1.0.txt", "doi-abcv1.zip", "doi-abcv.0.zip", "doi-abc1.0.zip",
+            "doi_abcv1.0.zip", "doi-abcv1.0zip", ".zip", "", "doi-abcv1234567890.0.zip" }) {
+            assertThrows(IllegalArgumentException.class, () -> new ExportedDatasetVersionName(invalid), invalid);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import nl.knaw.dans.easy.mirror.core.config.Inbox;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class InboxBacklogTest {
+    private final Path inboxDir = Paths.get("target/test/InboxBacklogTest/inbox");
+    private final Inbox inbox = new Inbox();
+    private final InboxStats stats = new InboxStats();
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        FileUtils.deleteDirectory(inboxDir.toFile());
+        Files.createDirectories(inboxDir);
+        inbox.setPath(inboxDir);
+    }
+
+    private void createFile(String name, long lastModified) throws Exception {
+        Path file = Files.createFile(inboxDir.resolve(name));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(lastModified));
+    }
+
+    private List<String> names(List<Path> paths) {
+        List<String> names = new ArrayList<>();
+        paths.forEach(p -> names.add(p.getFileName().toString()));
+        return names;
+    }
+
+    @Test
+    public void hands_over_zip_files_oldest_first() throws Exception {
+        createFile("c-v1.0.zip", 3000);
+        createFile("a-v1.0.zip", 2000);
+        createFile("b-v1.0.zip", 1000);
+        createFile("a-datacite.v1.0.xml", 500);
+        Files.createDirectories(inboxDir.resolve("subdir.zip"));
+
+        List<Path> submitted = new ArrayList<>();
+        assertTrue(new InboxBacklog(inbox, new InboxStats()).drain(submitted::add));
+        assertEquals(Arrays.asList("b-v1.0.zip", "a-v1.0.zip", "c-v1.0.zip"), names(submitted));
+    }
+
+    @Test
+    public void records_unreadable_entries_and_scans_the_others() throws Exception {
+        createFile("a-v1.0.zip", 1000);
+        // A dangling link, whose attributes cannot be read
+        Path link = Files.createSymbolicLink(inboxDir.resolve("b-v1.0.zip"), inboxDir.resolve("missing"));
+        InboxBacklog backlog = new InboxBacklog(inbox, stats);
+
+        List<Path> submitted = new ArrayList<>();
+        assertTrue(backlog.drain(submitted::add));
+        assertEquals(Arrays.asList("a-v1.0.zip"), names(submitted));
+        assertEquals(Collections.singleton(link), backlog.getSkipped().keySet());
+    }
+
+    @Test
+    public void resumes_where_it_left_off_without_rescanning() throws Exception {
+        createFile("a-v1.0.zip", 1000);
+        createFile("b-v1.0.zip", 2000);
+        createFile("c-v1.0.zip", 3000);
+        InboxBacklog backlog = new InboxBacklog(inbox, stats);
+
+        List<Path> submitted = new ArrayList<>();
+        assertFalse(backlog.drain(dve -> submitted.size() < 2 && submitted.add(dve)));
+        assertEquals(1, backlog.getPendingCount());
+        assertEquals(3, stats.getPendingCount());
+
+        // Not found by the resumed drain, because the inbox is not listed again
+        createFile("d-v1.0.zip", 500);
+        assertTrue(backlog.drain(submitted::add));
+        assertEquals(Arrays.asList("a-v1.0.zip", "b-v1.0.zip", "c-v1.0.zip"), names(submitted));
+
+        backlog.requestRescan();
+        submitted.clear();
+        assertTrue(backlog.drain(submitted::add));
+        assertEquals(Arrays.asList("d-v1.0.zip", "a-v1.0.zip", "b-v1.0.zip", "c-v1.0.zip"), names(submitted));
+    }
+
+    @Test
+    public void hands_over_saved_dves_first_after_restore_and_scans_afterwards() throws Exception {
+        createFile("a-v1.0.zip", 1000);
+        createFile("b-v1.0.zip", 2000);
+        createFile("c-v1.0.zip", 3000);
+        InboxBacklog backlog = new InboxBacklog(inbox, stats);
+        List<Path> submitted = new ArrayList<>();
+        assertFalse(backlog.drain(dve -> submitted.size() < 1 && submitted.add(dve)));
+
+        // a was accepted but not started when the service stopped, b and c were still in the backlog
+        backlog.save(Arrays.asList(inboxDir.resolve("a-v1.0.zip")));
+        createFile("d-v1.0.zip", 500);
+
+        InboxBacklog restarted = new InboxBacklog(inbox, new InboxStats());
+        restarted.restore();
+        assertFalse(Files.exists(inboxDir.resolve(InboxBacklog.PENDING_FILE)));
+        submitted.clear();
+        // Not drained yet: the scan for DVEs that arrived while stopped is still to come
+        assertFalse(restarted.drain(submitted::add));
+        assertEquals(Arrays.asList("a-v1.0.zip", "b-v1.0.zip", "c-v1.0.zip"), names(submitted));
+
+        submitted.clear();
+        assertTrue(restarted.drain(submitted::add));
+        assertEquals(Arrays.asList("d-v1.0.zip", "a-v1.0.zip", "b-v1.0.zip", "c-v1.0.zip"), names(submitted));
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class InboxStatsTest {
+
+    @Test
+    public void oldest_pending_age_is_that_of_earliest_arrival_whatever_the_order_of_detection() {
+        InboxStats stats = new InboxStats();
+        long now = System.currentTimeMillis();
+        Path newer = Paths.get("newer-v1.0.zip");
+        Path older = Paths.get("older-v1.0.zip");
+        stats.seen(newer, now - 1000);
+        stats.seen(older, now - 60000);
+        assertTrue(stats.getOldestPendingAge() >= 60000);
+
+        stats.done(older);
+        long age = stats.getOldestPendingAge();
+        assertTrue(age >= 1000 && age < 60000);
+
+        stats.retain(Collections.emptyList());
+        assertEquals(0, stats.getOldestPendingAge());
+        assertEquals(0, stats.getPendingCount());
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import nl.knaw.dans.easy.mirror.core.config.Inbox;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+public class InboxWatcherTest {
+    private final Path inboxDir = Paths.get("target/test/InboxWatcherTest/inbox");
+    private final BlockingQueue<Path> created = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Inbox> drained = new LinkedBlockingQueue<>();
+    private InboxWatcher watcher;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        FileUtils.deleteDirectory(inboxDir.toFile());
+        Files.createDirectories(inboxDir);
+        watcher = new InboxWatcher((inbox, dve) -> created.add(dve), inbox -> { }, drained::add, 100);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        watcher.stop();
+    }
+
+    @Test
+    public void drains_backlog_on_start_and_reports_new_zip_files_only() throws Exception {
+        Inbox inbox = new Inbox();
+        inbox.setPath(inboxDir);
+        watcher.register(inbox);
+        watcher.start();
+        assertEquals(inbox, drained.poll(10, TimeUnit.SECONDS));
+
+        Files.createFile(inboxDir.resolve("doi-10-5072-fk2-xcfq1b-datacite.v1.0.xml"));
+        Files.createFile(inboxDir.resolve("doi-10-5072-fk2-xcfq1bv1.0.zip"));
+
+        Path dve = created.poll(10, TimeUnit.SECONDS);
+        assertNotNull(dve);
+        assertEquals(inboxDir.resolve("doi-10-5072-fk2-xcfq1bv1.0.zip"), dve);
+    }
+
+    @Test
+    public void drains_backlog_on_request() throws Exception {
+        Inbox inbox = new Inbox();
+        inbox.setPath(inboxDir);
+        watcher.register(inbox);
+        watcher.start();
+        assertEquals(inbox, drained.poll(10, TimeUnit.SECONDS));
+
+        watcher.requestRescan(inbox);
+        assertEquals(inbox, drained.poll(10, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MirrorStoreIndexTest {
+    private final Path testDir = Paths.get("target/test/MirrorStoreIndexTest");
+    private final Path storeDir = testDir.resolve("store");
+    private final Path indexDir = testDir.resolve("index");
+    private final DatasetVersionKey v1_0 = new DatasetVersionKey("doi-10-5072-fk2-xcfq1b", 1, 0);
+    private final DatasetVersionKey v1_1 = new DatasetVersionKey("doi-10-5072-fk2-xcfq1b", 1, 1);
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        FileUtils.deleteDirectory(testDir.toFile());
+        Files.createDirectories(storeDir);
+    }
+
+    private Path storeFile(String name) throws Exception {
+        Path container = Files.createDirectories(storeDir.resolve("xc/fq"));
+        return Files.copy(Paths.get("src/test/resources/dves/valid").resolve(name), container.resolve(name));
+    }
+
+    @Test
+    public void rebuilds_missing_index_by_walking_the_store() throws Exception {
+        Path stored = storeFile("doi-10-5072-fk2-xcfq1bv1.0.zip");
+        MirrorStoreIndex index = new MirrorStoreIndex(storeDir, indexDir, 100, 2);
+        index.load();
+        assertTrue(index.contains(v1_0));
+        assertFalse(index.contains(v1_1));
+        assertEquals(Files.size(stored), index.get(v1_0).get().getSize());
+        assertTrue(Files.exists(indexDir.resolve("index.bin")));
+    }
+
+    @Test
+    public void reloads_checkpoint_and_log_without_walking_the_store() throws Exception {
+        MirrorStoreIndex index = new MirrorStoreIndex(storeDir, indexDir, 100, 2);
+        index.load();
+        index.add(new StoredDve(v1_0, storeDir.resolve("xc/fq/doi-10-5072-fk2-xcfq1bv1.0.zip"), 10, 1000));
+        index.checkpoint();
+        index.add(new StoredDve(v1_1, storeDir.resolve("xc/fq/doi-10-5072-fk2-xcfq1bv1.1.zip"), 20, 2000));
+
+        // Neither file exists in the store, so these can only come from the checkpoint and the log
+        MirrorStoreIndex reloaded = new MirrorStoreIndex(storeDir, indexDir, 100, 2);
+        reloaded.load();
+        assertEquals(2, reloaded.size());
+        assertEquals(20, reloaded.get(v1_1).get().getSize());
+        assertEquals(storeDir.resolve("xc/fq/doi-10-5072-fk2-xcfq1bv1.1.zip"), reloaded.get(v1_1).get().getPath());
+    }
+
+    @Test
+    public void rebuilds_index_written_for_other_store() throws Exception {
+        MirrorStoreIndex other = new MirrorStoreIndex(testDir.resolve("other"), indexDir, 100, 2);
+        Files.createDirectories(testDir.resolve("other"));
+        other.load();
+        other.add(new StoredDve(v1_1, testDir.resolve("other/xc/fq/doi-10-5072-fk2-xcfq1bv1.1.zip"), 20, 2000));
+        other.checkpoint();
+
+        storeFile("doi-10-5072-fk2-xcfq1bv1.0.zip");
+        MirrorStoreIndex index = new MirrorStoreIndex(storeDir, indexDir, 100, 2);
+        index.load();
+        assertTrue(index.contains(v1_0));
+        assertFalse(index.contains(v1_1));
+    }
+
+    @Test
+    public void keeps_versions_by_space_name_and_shard_aggregates_current() throws Exception {
+        MirrorStoreIndex index = new MirrorStoreIndex(storeDir, indexDir, 100, 2);
+        index.load();
+        index.add(new StoredDve(v1_1, storeDir.resolve("xc/fq/doi-10-5072-fk2-xcfq1bv1.1.zip"), 20, 2000));
+        index.add(new StoredDve(v1_0, storeDir.resolve("xc/fq/doi-10-5072-fk2-xcfq1bv1.0.zip"), 10, 1000));
+
+        assertEquals(Arrays.asList(v1_0, v1_1), index.getVersions("doi-10-5072-fk2-xcfq1b").stream().map(StoredDve::getKey).collect(Collectors.toList()));
+        assertEquals(v1_1, index.getLatestVersion("doi-10-5072-fk2-xcfq1b").get().getKey());
+        assertFalse(index.getLatestVersion("doi-10-5072-fk2-other").isPresent());
+        ShardStats shard = index.getShardStats().get(Paths.get("xc/fq").toString());
+        assertEquals(2, shard.getCount());
+        assertEquals(30, shard.getTotalSize());
+    }
+}
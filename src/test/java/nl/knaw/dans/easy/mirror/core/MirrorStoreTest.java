@@ -15,14 +15,22 @@
  */
 package nl.knaw.dans.easy.mirror.core;
 
+import com.codahale.metrics.MetricRegistry;
 import org.apache.commons.io.FileUtils;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 public class MirrorStoreTest {
     private final Path testDir = Paths.get("target/test/MirrorStoreTest/");
@@ -49,5 +57,223 @@ public class MirrorStoreTest {
         Assertions.assertTrue(mirrorStore.contains(testDir.resolve("valid/doi-10-5072-fk2-xcfq1bv1.0.zip")));
     }
 
+    @Test
+    public void forgets_dve_that_is_in_index_checkpoint_but_not_in_store() throws Exception {
+        MirrorStore store = new MirrorStore(storeDir);
+        store.store(testDir.resolve("valid/doi-10-5072-fk2-xcfq1bv1.0.zip"));
+        store.checkpoint();
+        Files.delete(storeDir.resolve("xc/fq/doi-10-5072-fk2-xcfq1bv1.0.zip"));
+
+        MirrorStore reopened = new MirrorStore(storeDir);
+        Assertions.assertFalse(reopened.contains(testDir.resolve("valid/doi-10-5072-fk2-xcfq1bv1.0.zip")));
+        Assertions.assertEquals(0, reopened.size());
+    }
+
+    @Test
+    public void keeps_digests_when_closed_and_reopened() throws Exception {
+        MirrorStore store = new MirrorStore(storeDir);
+        store.store(testDir.resolve("valid/doi-10-5072-fk2-xcfq1bv1.0.zip"));
+        store.close();
+        store.close();
+
+        DatasetVersionKey key = DatasetVersionKey.of(new ExportedDatasetVersionName("doi-10-5072-fk2-xcfq1bv1.0.zip"));
+        DigestIndex digests = new DigestIndex(storeDir.resolve(".index/digests.log"));
+        digests.load();
+        digests.close();
+        Assertions.assertTrue(digests.get(key, "SHA-256").isPresent());
+        Assertions.assertTrue(store.getStoredDigest(key).isPresent());
+        store.close();
+    }
+
+    @Test
+    public void appends_checksums_of_stored_bag_to_manifests_in_container() throws Exception {
+        Path dve = testDir.resolve("valid/doi-10-5072-fk2-xcfq1bv1.0.zip");
+        Map<String, String> expected = Checksums.compute(dve, Arrays.asList("SHA-256", "MD5"));
+        new MirrorStore(storeDir, Arrays.asList("SHA-256", "MD5"), new MetricRegistry()).store(dve);
+
+        List<String> sha256 = Files.readAllLines(storeDir.resolve("xc/fq/manifest-sha256.txt"), StandardCharsets.UTF_8);
+        List<String> md5 = Files.readAllLines(storeDir.resolve("xc/fq/manifest-md5.txt"), StandardCharsets.UTF_8);
+        Assertions.assertEquals(Collections.singletonList(expected.get("SHA-256") + "  doi-10-5072-fk2-xcfq1bv1.0.zip"), sha256);
+        Assertions.assertEquals(Collections.singletonList(expected.get("MD5") + "  doi-10-5072-fk2-xcfq1bv1.0.zip"), md5);
+    }
+
+    @Test
+    public void copy_computes_checksums_of_copied_bytes() throws Exception {
+        Path source = testDir.resolve("valid/doi-10-5072-fk2-xcfq1bv1.1.zip");
+        Path target = storeDir.resolve("copy.zip");
+        Map<String, String> checksums = Checksums.copy(source, target, Collections.singletonList("SHA-256"));
+        Assertions.assertEquals(Checksums.compute(source, Collections.singletonList("SHA-256")), checksums);
+        Assertions.assertArrayEquals(Files.readAllBytes(source), Files.readAllBytes(target));
+    }
+
+    @Test
+    public void transfer_strategies_copy_bytes_and_return_checksums_of_source() throws Exception {
+        Path source = testDir.resolve("valid/doi-10-5072-fk2-xcfq1bv1.1.zip");
+        List<String> algorithms = Arrays.asList("SHA-256", "MD5");
+        for (TransferStrategy strategy : Arrays.asList(new TransferStrategy.ChannelTransfer(), new TransferStrategy.StreamTransfer(4096))) {
+            Path target = storeDir.resolve(strategy + ".zip");
+            Map<String, String> checksums = strategy.copy(source, target, algorithms);
+            Assertions.assertEquals(Checksums.compute(source, algorithms), checksums);
+            Assertions.assertArrayEquals(Files.readAllBytes(source), Files.readAllBytes(target));
+        }
+    }
+
+    @Test
+    public void finds_stored_bags_on_any_volume() throws Exception {
+        Path volume1 = testDir.resolve("volume1");
+        Path volume2 = testDir.resolve("volume2");
+        FileUtils.deleteDirectory(volume1.toFile());
+        FileUtils.deleteDirectory(volume2.toFile());
+        Files.createDirectories(volume1.resolve("xc/fq"));
+        Files.createDirectories(volume2);
+        Files.copy(testDir.resolve("valid/doi-10-5072-fk2-xcfq1bv1.0.zip"), volume1.resolve("xc/fq/doi-10-5072-fk2-xcfq1bv1.0.zip"));
+        MirrorStore store = new MirrorStore(Arrays.asList(volume1, volume2), 0, Collections.singletonList("SHA-256"), new MetricRegistry());
+
+        StoredDve stored = store.store(testDir.resolve("valid/doi-10-5072-fk2-xcfq1bv1.1.zip"));
+
+        Assertions.assertTrue(store.contains(testDir.resolve("valid/doi-10-5072-fk2-xcfq1bv1.0.zip")));
+        Assertions.assertTrue(store.contains(testDir.resolve("valid/doi-10-5072-fk2-xcfq1bv1.1.zip")));
+        Assertions.assertEquals(2, store.size());
+        Assertions.assertTrue(Files.exists(stored.getPath()));
+        Assertions.assertEquals(store.calculateContainer(new ExportedDatasetVersionName("doi-10-5072-fk2-xcfq1bv1.1.zip")), stored.getPath().getParent());
+    }
+
+    @Test
+    public void skips_volumes_without_enough_free_space() throws Exception {
+        Path volume1 = testDir.resolve("volume1");
+        FileUtils.deleteDirectory(volume1.toFile());
+        Files.createDirectories(volume1);
+        MirrorStore store = new MirrorStore(Collections.singletonList(volume1), Long.MAX_VALUE, Collections.singletonList("SHA-256"), new MetricRegistry());
+        Path dve = testDir.resolve("valid/doi-10-5072-fk2-xcfq1bv1.0.zip");
+
+        Assertions.assertThrows(IOException.class, () -> store.store(dve));
+        Assertions.assertTrue(Files.exists(dve));
+    }
 
+    @Test
+    public void finishes_move_interrupted_after_rename_on_open() throws Exception {
+        Path dve = testDir.resolve("valid/doi-10-5072-fk2-xcfq1bv1.0.zip");
+        Path target = storeDir.resolve("xc/fq/doi-10-5072-fk2-xcfq1bv1.0.zip");
+        Files.createDirectories(storeDir.resolve(".index"));
+        MoveJournal journal = new MoveJournal(storeDir.resolve(".index/moves.journal"));
+        journal.open();
+        journal.begin(dve, target);
+        journal.close();
+        // Crash after the rename, before manifests and index were written
+        Files.createDirectories(target.getParent());
+        Files.move(dve, target);
+
+        MirrorStore reopened = new MirrorStore(storeDir);
+        reopened.open();
+        Assertions.assertTrue(reopened.contains(dve));
+        Assertions.assertEquals(1, Files.readAllLines(storeDir.resolve("xc/fq/manifest-sha256.txt"), StandardCharsets.UTF_8).size());
+    }
+
+    @Test
+    public void move_stays_in_journal_when_its_recovery_fails() throws Exception {
+        Path dve = testDir.resolve("valid/doi-10-5072-fk2-xcfq1bv1.0.zip");
+        Path target = storeDir.resolve("xc/fq/doi-10-5072-fk2-xcfq1bv1.0.zip");
+        Files.createDirectories(storeDir.resolve(".index"));
+        MoveJournal journal = new MoveJournal(storeDir.resolve(".index/moves.journal"));
+        journal.open();
+        journal.begin(dve, target);
+        journal.close();
+        Files.createDirectories(target.getParent());
+        Files.move(dve, target);
+        // A directory where the manifest should be, so that finishing the move fails
+        Path manifest = Files.createDirectories(target.resolveSibling("manifest-sha256.txt"));
+
+        Assertions.assertThrows(Exception.class, () -> new MirrorStore(storeDir).open());
+
+        Files.delete(manifest);
+        MirrorStore reopened = new MirrorStore(storeDir);
+        reopened.open();
+        Assertions.assertTrue(reopened.contains(dve));
+        Assertions.assertEquals(1, Files.readAllLines(manifest, StandardCharsets.UTF_8).size());
+    }
+
+    @Test
+    public void abandoned_move_stays_in_journal_when_it_is_truncated() throws Exception {
+        Path file = Files.createDirectories(storeDir.resolve(".index")).resolve("moves.journal");
+        MoveJournal journal = new MoveJournal(file, 1024);
+        journal.open();
+        long abandoned = journal.begin(Paths.get("inbox/abandoned.zip"), Paths.get("store/abandoned.zip"));
+        journal.abandon(abandoned);
+        // Completed moves until the journal truncates itself
+        Path done = Paths.get("inbox/done.zip");
+        long size;
+        do {
+            size = Files.size(file);
+            journal.commit(journal.begin(done, done));
+        }
+        while (Files.size(file) > size);
+        journal.close();
+
+        List<MoveJournal.Move> incomplete = new MoveJournal(file).open();
+        Assertions.assertEquals(1, incomplete.size());
+        Assertions.assertEquals(abandoned, incomplete.get(0).getId());
+    }
+
+    @Test
+    public void rolls_back_move_interrupted_during_copy_on_open() throws Exception {
+        Path dve = testDir.resolve("valid/doi-10-5072-fk2-xcfq1bv1.0.zip");
+        Path target = storeDir.resolve("xc/fq/doi-10-5072-fk2-xcfq1bv1.0.zip");
+        Files.createDirectories(storeDir.resolve(".index"));
+        MoveJournal journal = new MoveJournal(storeDir.resolve(".index/moves.journal"));
+        journal.open();
+        journal.begin(dve, target);
+        journal.close();
+        // Crash halfway through copying to the temporary name
+        Path part = Files.createDirectories(target.getParent()).resolve(".doi-10-5072-fk2-xcfq1bv1.0.zip.part");
+        Files.write(part, new byte[100]);
+
+        MirrorStore reopened = new MirrorStore(storeDir);
+        reopened.open();
+        Assertions.assertFalse(reopened.contains(dve));
+        Assertions.assertFalse(Files.exists(part));
+        Assertions.assertTrue(Files.exists(dve));
+        reopened.store(dve);
+        Assertions.assertTrue(reopened.contains(dve));
+    }
+
+    private MirrorStore node(String nodeId) {
+        return new MirrorStore(Collections.singletonList(storeDir), StoreLayout.DEFAULT, Collections.emptyList(), 0, 0, Collections.singletonList("SHA-256"),
+            new TransferStrategy.ChannelTransfer(), FsyncPolicy.NONE, nodeId, new MetricRegistry());
+    }
+
+    @Test
+    public void node_learns_dves_stored_by_other_nodes() throws Exception {
+        MirrorStore nodeA = node("node-a");
+        MirrorStore nodeB = node("node-b");
+        nodeA.open();
+        nodeB.open();
+        Path dve = testDir.resolve("valid/doi-10-5072-fk2-xcfq1bv1.0.zip");
+        Path copy = testDir.resolve("copy/doi-10-5072-fk2-xcfq1bv1.0.zip");
+        Files.createDirectories(copy.getParent());
+        Files.copy(dve, copy, StandardCopyOption.REPLACE_EXISTING);
+
+        nodeA.store(dve);
+        Assertions.assertFalse(nodeB.contains(copy));
+        Assertions.assertEquals(1, nodeB.mergeOtherNodes());
+        Assertions.assertTrue(nodeB.contains(copy));
+    }
+
+    @Test
+    public void storing_dve_stored_by_other_node_adds_it_to_index() throws Exception {
+        MirrorStore nodeA = node("node-a");
+        MirrorStore nodeB = node("node-b");
+        nodeA.open();
+        nodeB.open();
+        Path dve = testDir.resolve("valid/doi-10-5072-fk2-xcfq1bv1.0.zip");
+        Path copy = testDir.resolve("copy/doi-10-5072-fk2-xcfq1bv1.0.zip");
+        Files.createDirectories(copy.getParent());
+        Files.copy(dve, copy, StandardCopyOption.REPLACE_EXISTING);
+
+        nodeA.store(dve);
+        Assertions.assertThrows(AlreadyStoredException.class, () -> nodeB.store(copy));
+        Assertions.assertTrue(nodeB.contains(copy));
+        Assertions.assertTrue(Files.exists(copy));
+        Assertions.assertEquals(Checksums.compute(copy, Collections.singletonList("SHA-256")).get("SHA-256"),
+            nodeB.getStoredDigest(DatasetVersionKey.of(new Dve(copy).getName())).get());
+    }
 }
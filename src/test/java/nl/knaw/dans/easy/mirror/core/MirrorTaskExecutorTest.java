@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MirrorTaskExecutorTest {
+    private final MirrorTaskExecutor executor = new MirrorTaskExecutor(1, 1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    public void tearDown() {
+        release.countDown();
+        executor.shutdown();
+    }
+
+    private void await() {
+        try {
+            release.await(10, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    public void same_dve_is_not_accepted_twice_while_in_flight() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        Dve dve = new Dve(Paths.get("inbox/doi-10-5072-fk2-xcfq1bv1.0.zip"));
+        executor.submit("inbox", dve, p -> {
+            runs.incrementAndGet();
+            started.countDown();
+            await();
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        assertTrue(executor.submit("inbox", dve, p -> runs.incrementAndGet()));
+        assertEquals(0, executor.getQueueDepth());
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void rejects_when_queue_is_full_and_reports_queue_depth() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        executor.submit("inbox", new Dve(Paths.get("inbox/a-v1.0.zip")), p -> {
+            started.countDown();
+            await();
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        assertTrue(executor.submit("inbox", new Dve(Paths.get("inbox/b-v1.0.zip")), p -> { }));
+        assertEquals(1, executor.getQueueDepth());
+        assertFalse(executor.submit("inbox", new Dve(Paths.get("inbox/c-v1.0.zip")), p -> { }));
+    }
+
+    @Test
+    public void bounds_queues_of_all_sources_together_but_keeps_share_free_for_each() throws Exception {
+        MirrorTaskExecutor executor = new MirrorTaskExecutor(1, 4);
+        executor.addSource("big", 1);
+        executor.addSource("small", 1);
+        CountDownLatch started = new CountDownLatch(1);
+        try {
+            executor.submit("big", new Dve(Paths.get("big/blocker-v1.0.zip")), p -> {
+                started.countDown();
+                await();
+            });
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            assertTrue(executor.submit("big", new Dve(Paths.get("big/b0-v1.0.zip")), p -> { }));
+            assertTrue(executor.submit("big", new Dve(Paths.get("big/b1-v1.0.zip")), p -> { }));
+            assertFalse(executor.submit("big", new Dve(Paths.get("big/b2-v1.0.zip")), p -> { }));
+
+            assertTrue(executor.submit("small", new Dve(Paths.get("small/s0-v1.0.zip")), p -> { }));
+            assertTrue(executor.submit("small", new Dve(Paths.get("small/s1-v1.0.zip")), p -> { }));
+            assertFalse(executor.submit("small", new Dve(Paths.get("small/s2-v1.0.zip")), p -> { }));
+            assertEquals(4, executor.getQueueDepth());
+        }
+        finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void serves_sources_by_weight_instead_of_in_arrival_order() throws Exception {
+        MirrorTaskExecutor executor = new MirrorTaskExecutor(1, 100);
+        executor.addSource("big", 1);
+        executor.addSource("small", 2);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(9);
+        try {
+            executor.submit("big", new Dve(Paths.get("big/blocker-v1.0.zip")), p -> {
+                started.countDown();
+                await();
+            });
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            for (int i = 0; i < 6; i++) {
+                executor.submit("big", new Dve(Paths.get("big/b" + i + "-v1.0.zip")), p -> {
+                    order.add("big");
+                    done.countDown();
+                });
+            }
+            for (int i = 0; i < 3; i++) {
+                executor.submit("small", new Dve(Paths.get("small/s" + i + "-v1.0.zip")), p -> {
+                    order.add("small");
+                    done.countDown();
+                });
+            }
+            assertEquals(6, executor.getQueueDepth("big"));
+            release.countDown();
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+
+            assertEquals(Arrays.asList("small", "big", "small", "small", "big", "big", "big", "big", "big"), order);
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void shutdown_lets_running_task_finish_and_returns_tasks_not_started() throws Exception {
+        MirrorTaskExecutor executor = new MirrorTaskExecutor(1, 10);
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicInteger finished = new AtomicInteger();
+        executor.submit("inbox", new Dve(Paths.get("inbox/a-v1.0.zip")), p -> {
+            started.countDown();
+            try {
+                Thread.sleep(200);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            finished.incrementAndGet();
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        executor.submit("inbox", new Dve(Paths.get("inbox/b-v1.0.zip")), p -> finished.incrementAndGet());
+        executor.submit("inbox", new Dve(Paths.get("inbox/c-v1.0.zip")), p -> finished.incrementAndGet());
+
+        List<Dve> notStarted = executor.shutdown(10000);
+
+        assertEquals(1, finished.get());
+        assertEquals(Arrays.asList(Paths.get("inbox/b-v1.0.zip"), Paths.get("inbox/c-v1.0.zip")),
+            Arrays.asList(notStarted.get(0).getPath(), notStarted.get(1).getPath()));
+        assertFalse(executor.submit("inbox", new Dve(Paths.get("inbox/d-v1.0.zip")), p -> { }));
+    }
+}
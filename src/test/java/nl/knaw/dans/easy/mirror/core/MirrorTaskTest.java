@@ -15,14 +15,19 @@
  */
 package nl.knaw.dans.easy.mirror.core;
 
+import com.codahale.metrics.MetricRegistry;
 import org.apache.commons.io.FileUtils;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Collections;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -46,7 +51,7 @@ public class MirrorTaskTest {
     private void executeTask(Path dve) throws Exception {
         Path dveInInbox = inbox.resolve(dve.getFileName());
         Files.copy(dveRootDir.resolve(dve), dveInInbox);
-        new MirrorTask(failedBox, mirrorStore).move(dveInInbox);
+        new MirrorTask(failedBox, mirrorStore, new MetricRegistry()).move(dveInInbox);
     }
 
     @Test
@@ -70,4 +75,134 @@ public class MirrorTaskTest {
         executeTask(dve);
         assertTrue(mirrorStore.contains(dve));
     }
+
+    @Test
+    public void dve_failing_with_transient_error_stays_in_inbox_until_last_attempt() throws Exception {
+        Path dve = Paths.get("valid/doi-10-5072-fk2-xcfq1bv1.0.zip");
+        Path dveInInbox = inbox.resolve(dve.getFileName());
+        Files.copy(dveRootDir.resolve(dve), dveInInbox);
+        MirrorStore unreachableStore = new MirrorStore(mirrorStoreDir) {
+
+            @Override
+            public StoredDve store(Dve dve) throws IOException {
+                throw new IOException("Stale file handle");
+            }
+        };
+        MirrorTask task = new MirrorTask(failedBox, unreachableStore, new RetryPolicy(2, 10, 100), new MetricRegistry());
+
+        assertEquals(MirrorTask.Outcome.RETRY, task.move(new Dve(dveInInbox), 1));
+        assertTrue(Files.exists(dveInInbox));
+        assertEquals(MirrorTask.Outcome.FAILED, task.move(new Dve(dveInInbox), 2));
+        assertTrue(Files.exists(failedBox.resolve(dve.getFileName())));
+    }
+
+    @Test
+    public void dve_is_held_in_inbox_when_store_is_full() throws Exception {
+        Path dve = Paths.get("valid/doi-10-5072-fk2-xcfq1bv1.0.zip");
+        Path dveInInbox = inbox.resolve(dve.getFileName());
+        Files.copy(dveRootDir.resolve(dve), dveInInbox);
+        // No room on the only volume
+        MirrorStore fullStore = new MirrorStore(Collections.singletonList(mirrorStoreDir), Long.MAX_VALUE, Collections.singletonList("SHA-256"), new MetricRegistry());
+        MirrorTask task = new MirrorTask(failedBox, fullStore, RetryPolicy.noRetries(), new MetricRegistry());
+
+        assertTrue(fullStore.isFull());
+        assertEquals(MirrorTask.Outcome.HELD, task.move(new Dve(dveInInbox), 1));
+        assertTrue(Files.exists(dveInInbox));
+        assertFalse(Files.exists(failedBox.resolve(dve.getFileName())));
+    }
+
+    @Test
+    public void dve_taken_over_while_being_stored_is_lost_not_failed() throws Exception {
+        Path dve = Paths.get("valid/doi-10-5072-fk2-xcfq1bv1.0.zip");
+        Path dveInInbox = inbox.resolve(dve.getFileName());
+        Files.copy(dveRootDir.resolve(dve), dveInInbox);
+        MirrorStore store = new MirrorStore(mirrorStoreDir) {
+
+            @Override
+            public StoredDve store(Dve dve) throws IOException {
+                // Another node reclaims the DVE halfway through
+                Files.delete(dve.getPath());
+                throw new NoSuchFileException(dve.getPath().toString());
+            }
+        };
+
+        assertEquals(MirrorTask.Outcome.LOST, new MirrorTask(failedBox, store, new MetricRegistry()).move(new Dve(dveInInbox), 1));
+        assertFalse(Files.exists(failedBox.resolve(dve.getFileName())));
+    }
+
+    @Test
+    public void identical_duplicate_is_deleted_from_inbox() throws Exception {
+        Path dve = Paths.get("valid/doi-10-5072-fk2-xcfq1bv1.0.zip");
+        executeTask(dve);
+        Path again = inbox.resolve(dve.getFileName());
+        Files.copy(dveRootDir.resolve(dve), again);
+
+        assertEquals(MirrorTask.Outcome.DUPLICATE, new MirrorTask(failedBox, mirrorStore, new MetricRegistry()).move(again));
+        assertFalse(Files.exists(again));
+    }
+
+    @Test
+    public void dve_is_stored_when_digest_of_stored_dve_cannot_be_found() throws Exception {
+        Path dve = Paths.get("valid/doi-10-5072-fk2-xcfq1bv1.0.zip");
+        Path dveInInbox = inbox.resolve(dve.getFileName());
+        Files.copy(dveRootDir.resolve(dve), dveInInbox);
+        MirrorStore store = new MirrorStore(mirrorStoreDir) {
+
+            @Override
+            public boolean contains(Dve dve) {
+                // Removed from the index after it was checked
+                return true;
+            }
+        };
+
+        assertEquals(MirrorTask.Outcome.STORED, new MirrorTask(failedBox, store, new MetricRegistry()).move(dveInInbox));
+        assertTrue(Files.exists(mirrorStoreDir.resolve("xc/fq").resolve(dve.getFileName())));
+    }
+
+    @Test
+    public void dve_stored_but_missing_from_index_is_handled_as_duplicate() throws Exception {
+        Path dve = Paths.get("valid/doi-10-5072-fk2-xcfq1bv1.0.zip");
+        Path container = Files.createDirectories(mirrorStoreDir.resolve("xc/fq"));
+        Files.copy(dveRootDir.resolve(dve), container.resolve(dve.getFileName()));
+        Path dveInInbox = inbox.resolve(dve.getFileName());
+        Files.copy(dveRootDir.resolve(dve), dveInInbox);
+        MirrorStore store = new MirrorStore(mirrorStoreDir) {
+
+            @Override
+            public boolean contains(Dve dve) {
+                // As with an index checkpoint from before the DVE was stored
+                return false;
+            }
+        };
+
+        assertEquals(MirrorTask.Outcome.DUPLICATE, new MirrorTask(failedBox, store, new MetricRegistry()).move(dveInInbox));
+        assertFalse(Files.exists(dveInInbox));
+        assertFalse(Files.exists(failedBox.resolve(dve.getFileName())));
+    }
+
+    @Test
+    public void different_dve_with_stored_name_is_quarantined() throws Exception {
+        Path dve = Paths.get("valid/doi-10-5072-fk2-xcfq1bv1.0.zip");
+        executeTask(dve);
+        Path other = inbox.resolve(dve.getFileName());
+        Files.copy(dveRootDir.resolve("valid/doi-10-5072-fk2-xcfq1bv1.1.zip"), other);
+
+        assertEquals(MirrorTask.Outcome.QUARANTINED, new MirrorTask(failedBox, mirrorStore, new MetricRegistry()).move(other));
+        assertFalse(Files.exists(other));
+        assertTrue(Files.exists(failedBox.resolve("quarantine").resolve(dve.getFileName())));
+        assertTrue(Files.exists(failedBox.resolve("quarantine").resolve(MirrorTask.reasonFileName(dve))));
+        assertEquals(Files.size(dveRootDir.resolve(dve)), Files.size(mirrorStoreDir.resolve("xc/fq").resolve(dve.getFileName())));
+    }
+
+    @Test
+    public void digest_of_stored_dve_is_taken_from_manifest_when_not_cached() throws Exception {
+        Path dve = Paths.get("valid/doi-10-5072-fk2-xcfq1bv1.0.zip");
+        executeTask(dve);
+        Files.delete(mirrorStoreDir.resolve(".index/digests.log"));
+        MirrorStore reopened = new MirrorStore(mirrorStoreDir);
+        String expected = Checksums.compute(dveRootDir.resolve(dve), Collections.singletonList("SHA-256")).get("SHA-256");
+
+        assertEquals(expected, reopened.getStoredDigest(DatasetVersionKey.of(new ExportedDatasetVersionName(dve.getFileName().toString()))).get());
+        assertTrue(new String(Files.readAllBytes(mirrorStoreDir.resolve(".index/digests.log"))).contains(expected));
+    }
 }
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import nl.knaw.dans.easy.mirror.core.config.Inbox;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ReadinessTrackerTest {
+    private final Path inboxDir = Paths.get("target/test/ReadinessTrackerTest/inbox");
+    private final Inbox inbox = new Inbox();
+    private final List<Dve> ready = new ArrayList<>();
+    private final List<Dve> gone = new ArrayList<>();
+    private final ReadinessTracker tracker = new ReadinessTracker(60000, 1000, (i, dve) -> ready.add(dve), (i, dve) -> gone.add(dve));
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        FileUtils.deleteDirectory(inboxDir.toFile());
+        Files.createDirectories(inboxDir);
+        inbox.setPath(inboxDir);
+    }
+
+    @Test
+    public void hands_over_old_file_immediately() throws Exception {
+        Path zip = Files.createFile(inboxDir.resolve("doi-10-5072-fk2-xcfq1bv1.0.zip"));
+        Files.setLastModifiedTime(zip, FileTime.fromMillis(System.currentTimeMillis() - 120000));
+        Dve dve = new Dve(zip);
+        assertTrue(tracker.offer(inbox, dve));
+        assertEquals(Collections.singletonList(dve), ready);
+        assertEquals(0, tracker.getTrackedCount());
+    }
+
+    @Test
+    public void holds_back_new_file_until_companion_xml_exists() throws Exception {
+        Dve dve = new Dve(Files.createFile(inboxDir.resolve("doi-10-5072-fk2-xcfq1bv1.0.zip")));
+        assertTrue(tracker.offer(inbox, dve));
+        assertTrue(ready.isEmpty());
+        assertEquals(1, tracker.getTrackedCount());
+
+        tracker.checkCandidates();
+        assertTrue(ready.isEmpty());
+
+        Files.createFile(inboxDir.resolve("doi-10-5072-fk2-xcfq1b-datacite.v1.0.xml"));
+        tracker.checkCandidates();
+        assertEquals(Collections.singletonList(dve), ready);
+        assertEquals(0, tracker.getTrackedCount());
+    }
+
+    @Test
+    public void hands_over_file_after_quiet_period() throws Exception {
+        ReadinessTracker shortQuietPeriod = new ReadinessTracker(50, 1000, (i, dve) -> ready.add(dve), (i, dve) -> gone.add(dve));
+        Dve dve = new Dve(Files.createFile(inboxDir.resolve("doi-10-5072-fk2-xcfq1bv1.0.zip")));
+        Files.setLastModifiedTime(dve.getPath(), FileTime.fromMillis(System.currentTimeMillis() + 60000));
+        assertTrue(shortQuietPeriod.offer(inbox, dve));
+        assertTrue(ready.isEmpty());
+
+        Thread.sleep(100);
+        shortQuietPeriod.checkCandidates();
+        assertEquals(Collections.singletonList(dve), ready);
+    }
+
+    @Test
+    public void forgets_file_that_disappears() throws Exception {
+        Dve dve = new Dve(Files.createFile(inboxDir.resolve("doi-10-5072-fk2-xcfq1bv1.0.zip")));
+        tracker.offer(inbox, dve);
+        Files.delete(dve.getPath());
+        tracker.checkCandidates();
+        assertEquals(Collections.singletonList(dve), gone);
+        assertEquals(0, tracker.getTrackedCount());
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.NoSuchFileException;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RetryPolicyTest {
+    private final RetryPolicy policy = new RetryPolicy(3, 1000, 5000);
+
+    @Test
+    public void retries_transient_io_errors_until_max_attempts() {
+        IOException busy = new FileSystemException("/data/easy-mirror-store", null, "Device or resource busy");
+        assertTrue(policy.shouldRetry(1, busy));
+        assertTrue(policy.shouldRetry(2, busy));
+        assertFalse(policy.shouldRetry(3, busy));
+    }
+
+    @Test
+    public void does_not_retry_permanent_errors() {
+        assertFalse(policy.shouldRetry(1, new NoSuchFileException("inbox/a-v1.0.zip")));
+        assertFalse(policy.shouldRetry(1, new IllegalArgumentException("invalid name")));
+    }
+
+    @Test
+    public void backoff_doubles_with_jitter_and_is_capped() {
+        for (int i = 0; i < 100; i++) {
+            long first = policy.getBackoff(1);
+            long second = policy.getBackoff(2);
+            long tenth = policy.getBackoff(10);
+            assertTrue(first >= 500 && first <= 1000, "first: " + first);
+            assertTrue(second >= 1000 && second <= 2000, "second: " + second);
+            assertTrue(tenth >= 2500 && tenth <= 5000, "tenth: " + tenth);
+        }
+    }
+}
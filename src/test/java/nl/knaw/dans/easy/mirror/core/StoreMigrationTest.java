@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import com.codahale.metrics.MetricRegistry;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+public class StoreMigrationTest {
+    private static final StoreLayout NEW_LAYOUT = new StoreLayout(3, 1);
+
+    private final Path testDir = Paths.get("target/test/StoreMigrationTest/");
+    private final Path storeDir = testDir.resolve("store");
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        FileUtils.deleteDirectory(storeDir.toFile());
+        Files.createDirectories(storeDir);
+        FileUtils.copyDirectory(Paths.get("src/test/resources/dves").toFile(), testDir.toFile());
+    }
+
+    @Test
+    public void pads_short_shard_keys() {
+        ExportedDatasetVersionName name = new ExportedDatasetVersionName("doi-10-5072-fk2-xcfq1bv1.0.zip");
+        Assertions.assertEquals(storeDir.resolve("xcfq1bv1.0.zip__"), new StoreLayout(1, 16).container(storeDir, name));
+    }
+
+    @Test
+    public void moves_dves_and_manifest_lines_to_new_layout_and_removes_old_containers() throws Exception {
+        MirrorStore oldStore = new MirrorStore(storeDir, Arrays.asList("SHA-256", "MD5"), new MetricRegistry());
+        oldStore.store(testDir.resolve("valid/doi-10-5072-fk2-xcfq1bv1.0.zip"));
+        oldStore.store(testDir.resolve("valid/doi-10-5072-fk2-xcfq1bv1.1.zip"));
+        List<String> sha256 = Files.readAllLines(storeDir.resolve("xc/fq/manifest-sha256.txt"), StandardCharsets.UTF_8);
+        oldStore.close();
+
+        long moved = new StoreMigration(Collections.singletonList(storeDir), NEW_LAYOUT, 2).migrate();
+
+        Assertions.assertEquals(2, moved);
+        Assertions.assertTrue(Files.exists(storeDir.resolve("x/c/f/doi-10-5072-fk2-xcfq1bv1.0.zip")));
+        Assertions.assertTrue(Files.exists(storeDir.resolve("x/c/f/doi-10-5072-fk2-xcfq1bv1.1.zip")));
+        Assertions.assertEquals(new HashSet<>(sha256), new HashSet<>(Files.readAllLines(storeDir.resolve("x/c/f/manifest-sha256.txt"), StandardCharsets.UTF_8)));
+        Assertions.assertTrue(Files.exists(storeDir.resolve("x/c/f/manifest-md5.txt")));
+        Assertions.assertFalse(Files.exists(storeDir.resolve("xc")));
+    }
+
+    @Test
+    public void can_be_run_again_after_interruption() throws Exception {
+        MirrorStore oldStore = new MirrorStore(storeDir, Collections.singletonList("SHA-256"), new MetricRegistry());
+        oldStore.store(testDir.resolve("valid/doi-10-5072-fk2-xcfq1bv1.0.zip"));
+        oldStore.close();
+        // Simulate a migration interrupted after the manifest line was copied, but before the rename
+        Files.createDirectories(storeDir.resolve("x/c/f"));
+        Files.copy(storeDir.resolve("xc/fq/manifest-sha256.txt"), storeDir.resolve("x/c/f/manifest-sha256.txt"));
+
+        Assertions.assertEquals(1, new StoreMigration(Collections.singletonList(storeDir), NEW_LAYOUT, 1).migrate());
+        Assertions.assertEquals(0, new StoreMigration(Collections.singletonList(storeDir), NEW_LAYOUT, 1).migrate());
+        Assertions.assertEquals(1, Files.readAllLines(storeDir.resolve("x/c/f/manifest-sha256.txt"), StandardCharsets.UTF_8).size());
+    }
+
+    @Test
+    public void is_refused_while_store_is_open() throws Exception {
+        MirrorStore store = new MirrorStore(storeDir, Collections.singletonList("SHA-256"), new MetricRegistry());
+        store.store(testDir.resolve("valid/doi-10-5072-fk2-xcfq1bv1.0.zip"));
+
+        Assertions.assertThrows(IOException.class, () -> new StoreMigration(Collections.singletonList(storeDir), NEW_LAYOUT, 1).migrate());
+        Assertions.assertTrue(Files.exists(storeDir.resolve("xc/fq/doi-10-5072-fk2-xcfq1bv1.0.zip")));
+
+        store.close();
+        Assertions.assertEquals(1, new StoreMigration(Collections.singletonList(storeDir), NEW_LAYOUT, 1).migrate());
+    }
+
+    @Test
+    public void store_finds_dves_in_new_layout_after_migration() throws Exception {
+        MirrorStore oldStore = new MirrorStore(storeDir, Collections.singletonList("SHA-256"), new MetricRegistry());
+        oldStore.store(testDir.resolve("valid/doi-10-5072-fk2-xcfq1bv1.0.zip"));
+        oldStore.checkpoint();
+        oldStore.close();
+
+        new StoreMigration(Collections.singletonList(storeDir), NEW_LAYOUT, 1).migrate();
+
+        MirrorStore store = new MirrorStore(Collections.singletonList(storeDir), NEW_LAYOUT, Collections.emptyList(), 0, 0,
+            Collections.singletonList("SHA-256"), new TransferStrategy.StreamTransfer(1 << 16), FsyncPolicy.NONE, new MetricRegistry());
+        DatasetVersionKey key = DatasetVersionKey.of(new ExportedDatasetVersionName("doi-10-5072-fk2-xcfq1bv1.0.zip"));
+        Assertions.assertEquals(storeDir.resolve("x/c/f/doi-10-5072-fk2-xcfq1bv1.0.zip"), store.get(key).orElseThrow(AssertionError::new).getPath());
+        Assertions.assertTrue(store.getStoredDigest(key).isPresent());
+        store.close();
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.mirror.core;
+
+import com.codahale.metrics.MetricRegistry;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class StoreScrubberTest {
+    private final Path testDir = Paths.get("target/test/StoreScrubberTest");
+    private final Path storeDir = testDir.resolve("store");
+    private final Path dataDir = testDir.resolve("scrubber");
+    private final Path validDves = Paths.get("src/test/resources/dves/valid");
+    private final MetricRegistry metrics = new MetricRegistry();
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        FileUtils.deleteDirectory(testDir.toFile());
+        Files.createDirectories(storeDir.resolve("xc/fq"));
+        Files.createDirectories(dataDir);
+    }
+
+    private StoreScrubber createScrubber() {
+        MirrorStore store = new MirrorStore(Collections.singletonList(storeDir), 0, Collections.singletonList("SHA-256"), new MetricRegistry());
+        return new StoreScrubber(store, dataDir, Long.MAX_VALUE / 1000, 0, metrics);
+    }
+
+    @Test
+    public void reports_truncated_zip_and_completes_pass() throws Exception {
+        Files.copy(validDves.resolve("doi-10-5072-fk2-xcfq1bv1.0.zip"), storeDir.resolve("xc/fq/doi-10-5072-fk2-xcfq1bv1.0.zip"));
+        byte[] bytes = Files.readAllBytes(validDves.resolve("doi-10-5072-fk2-xcfq1bv1.1.zip"));
+        Files.write(storeDir.resolve("xc/fq/doi-10-5072-fk2-xcfq1bv1.1.zip"), Arrays.copyOf(bytes, bytes.length / 2));
+
+        createScrubber().runPass();
+
+        assertEquals(2, metrics.counter(MetricRegistry.name(StoreScrubber.class, "checked")).getCount());
+        assertEquals(1, metrics.counter(MetricRegistry.name(StoreScrubber.class, "corrupt")).getCount());
+        List<String> report = Files.readAllLines(dataDir.resolve("report.txt"), StandardCharsets.UTF_8);
+        assertEquals(2, report.size());
+        assertTrue(report.get(0).contains("\tCORRUPT\t") && report.get(0).contains("doi-10-5072-fk2-xcfq1bv1.1.zip"));
+        assertTrue(report.get(1).contains("\tPASS-COMPLETED\tchecked=2\tcorrupt=1"));
+        assertFalse(Files.exists(dataDir.resolve("position")));
+    }
+
+    @Test
+    public void detects_corrupted_entry_data() throws Exception {
+        Path zip = storeDir.resolve("xc/fq/doi-10-5072-fk2-xcfq1bv1.0.zip");
+        byte[] bytes = Files.readAllBytes(validDves.resolve("doi-10-5072-fk2-xcfq1bv1.0.zip"));
+        Files.write(zip, bytes);
+        StoreScrubber scrubber = createScrubber();
+        assertNull(scrubber.check(zip));
+
+        bytes[bytes.length / 3] ^= 0xff;
+        Files.write(zip, bytes);
+        assertNotNull(scrubber.check(zip));
+    }
+
+    @Test
+    public void paces_by_bytes_read_from_disk_and_reports_missing_file() throws Exception {
+        Path zip = storeDir.resolve("xc/fq/doi-10-5072-fk2-xcfq1bv1.0.zip");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+            out.putNextEntry(new ZipEntry("bag/data/zeros.bin"));
+            out.write(new byte[1 << 20]);
+            out.closeEntry();
+        }
+        StoreScrubber scrubber = createScrubber();
+        assertNull(scrubber.check(zip));
+        long read = metrics.meter(MetricRegistry.name(StoreScrubber.class, "bytes-read")).getCount();
+        assertTrue(read > 0 && read <= Files.size(zip), "read " + read + " bytes of a file of " + Files.size(zip));
+
+        Files.delete(zip);
+        assertEquals("missing", scrubber.check(zip));
+    }
+
+    @Test
+    public void resumes_after_saved_position() throws Exception {
+        Files.copy(validDves.resolve("doi-10-5072-fk2-xcfq1bv1.0.zip"), storeDir.resolve("xc/fq/doi-10-5072-fk2-xcfq1bv1.0.zip"));
+        Files.copy(validDves.resolve("doi-10-5072-fk2-xcfq1bv1.1.zip"), storeDir.resolve("xc/fq/doi-10-5072-fk2-xcfq1bv1.1.zip"));
+        Files.write(dataDir.resolve("position"), "doi-10-5072-fk2-xcfq1b\t1\t0\n".getBytes(StandardCharsets.UTF_8));
+
+        createScrubber().runPass();
+
+        assertEquals(1, metrics.counter(MetricRegistry.name(StoreScrubber.class, "checked")).getCount());
+        assertEquals(0, metrics.counter(MetricRegistry.name(StoreScrubber.class, "corrupt")).getCount());
+    }
+}